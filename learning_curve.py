@@ -1,4 +1,5 @@
 import argparse as ap
+import json
 import matplotlib.pyplot as plt
 import numpy as np
 import os
@@ -9,7 +10,27 @@ LINE_PREAMBLE = "[INFO] TrainerAgent.onGameEnd: After "
 LINE_POSTAMBLE = "phase(s), avg trajectory utility = "
 
 
+def load_events(path: str) -> np.ndarray:
+    # <outFile>.events.jsonl written by ParallelTrainerAgent: one json object per line
+    data: List[Tuple[int, float]] = list()
+    with open(path, "r") as f:
+        for line in f:
+            if line.strip():
+                try:
+                    event = json.loads(line)
+                except ValueError:
+                    continue                # e.g. the last line of a run that was killed mid-write
+                if event.get("event") == "phase":
+                    # TrainingLog writes NaN as null: leave a gap in the curve
+                    avg_utility = event.get("avgUtility")
+                    data.append([float(event["phase"]), float("nan") if avg_utility is None else float(avg_utility)])
+    return np.array(data)
+
+
 def load(path: str) -> np.ndarray:
+    if path.endswith(".jsonl"):
+        return load_events(path)
+
     data: List[Tuple[int, float]] = list()
 
     try:
@@ -27,7 +48,7 @@ def load(path: str) -> np.ndarray:
 
 def main() -> None:
     parser = ap.ArgumentParser()
-    parser.add_argument("logfile", type=str, help="path to logfile containing eval outputs")
+    parser.add_argument("logfile", type=str, help="path to logfile containing eval outputs (or an .events.jsonl)")
     args = parser.parse_args()
 
     if not os.path.exists(args.logfile):
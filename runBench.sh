@@ -0,0 +1,32 @@
+#!/bin/bash
+
+# Builds and runs the JMH benchmarks in src/pas/tetris/bench (see BenchFixtures).
+# JMH is not checked in: the jars are downloaded from Maven Central into bench-lib/ the first time.
+# Any arguments are passed on to JMH (e.g. ./runBench.sh AgentBenchmark.getReward -f 1), default -prof gc.
+
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+JARS=(
+    "org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar"
+    "org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar"
+    "net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar"
+    "org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar"
+)
+
+# Fetch the JMH jars once
+mkdir -p bench-lib
+for JAR in "${JARS[@]}"; do
+    if [[ ! -f bench-lib/$(basename $JAR) ]]; then
+        curl -sSfL -o bench-lib/$(basename $JAR) "$MAVEN/$JAR" || { echo "could not download $JAR"; exit 1; }
+    fi
+done
+
+# Compile (the annotation processor generates the JMH harness next to the classes)
+rm -rf bench-out
+javac -cp "./lib/*:./bench-lib/*:." -d bench-out @tetris-bench.srcs || exit 1
+
+# Run
+if [[ $# -eq 0 ]]; then
+    set -- -prof gc
+fi
+java --add-modules jdk.incubator.vector -cp "./lib/*:./bench-lib/*:bench-out" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,447 @@
+package src.pas.tetris.agents;
+
+
+// SYSTEM IMPORTS
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.agents.Agent;
+import edu.bu.tetris.agents.QAgent;
+import edu.bu.tetris.agents.TrainerAgent;
+import edu.bu.tetris.agents.TrainerAgent.GameCounter;
+import edu.bu.tetris.game.Game;
+import edu.bu.tetris.game.Game.GameView;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.Model;
+import edu.bu.tetris.training.data.ReplayBuffer;
+import edu.bu.tetris.training.data.ReplayBuffer.ReplacementType;
+
+import src.pas.tetris.metrics.Counter;
+import src.pas.tetris.metrics.MetricsExporter;
+import src.pas.tetris.metrics.MetricsRegistry;
+import src.pas.tetris.nn.TargetNetwork;
+import src.pas.tetris.linalg.Precision;
+import src.pas.tetris.training.data.NextStateValueFunction;
+import src.pas.tetris.training.data.PrioritizedReplayBuffer;
+import src.pas.tetris.training.data.RingReplayBuffer;
+import src.pas.tetris.training.log.TrainingLog;
+
+
+/**
+ * A TrainerAgent that plays extra self-play games in parallel with every training game Main drives.
+ *
+ * Use it by passing "-a src.pas.tetris.agents.ParallelTrainerAgent" to Main (the q-function agent
+ * is still chosen with -q). When Main starts a training game, NUM_ROLLOUT_WORKERS more games are
+ * started on a worker pool, each from its own seed (Game(long, int, Agent)). So every training game
+ * Main plays yields (NUM_ROLLOUT_WORKERS + 1) games worth of experience for roughly the wall-clock time
+ * of one. To keep the same amount of experience per phase, divide -t by (NUM_ROLLOUT_WORKERS + 1).
+ *
+ * Workers pick greedy moves with a frozen copy of the q-function taken at the start of the phase, and
+ * explore through the q-agent's (thread-safe) shouldExplore/getExplorationMove, each with its own Random. The upstream replay
+ * buffer is swapped for a RingReplayBuffer, which takes lock-free appends, so workers and Main's game
+ * all add their transitions straight to it. Training happens after all workers of the last training
+ * game have finished. With PRIORITIZED_REPLAY on, the buffer is a PrioritizedReplayBuffer and a
+ * TetrisQAgent draws its minibatches from it instead of uniformly from the dataset. Bootstrap targets
+ * for the buffer are precomputed from the target network on a background thread between games.
+ */
+public class ParallelTrainerAgent
+    extends TrainerAgent
+{
+
+    public static final int NUM_ROLLOUT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    public static final int NUM_MINOS_PER_GAME  = 100; // same as the games Main creates
+
+    // sample minibatches proportionally to their TD error instead of uniformly
+    private static final boolean PRIORITIZED_REPLAY = true;
+    // append a snapshot of the metrics to <outFile>.metrics.jsonl every METRICS_EXPORT_PERIOD_SECS
+    private static final boolean EXPORT_METRICS = true;
+    private static final long METRICS_EXPORT_PERIOD_SECS = 10;
+    // append game and phase events to <outFile>.events.jsonl (see TrainingLog / TrainingLogReader)
+    private static final boolean WRITE_TRAINING_LOG = true;
+
+    /**
+     * Plays one worker game. Mirrors what TrainerAgent.makeMove does for a training game, except that
+     * greedy moves come from the frozen q-function.
+     */
+    private class RolloutAgent
+        extends Agent
+    {
+        private final Model         frozenQFunction;
+        private final GameCounter   gameCounter;
+        private final Random        random;             // this game's explore decisions
+        private Matrix              pastStateAndAction;
+
+        public RolloutAgent(Model frozenQFunction,
+                            GameCounter gameCounter,
+                            long seed)
+        {
+            super("RolloutAgent");
+            this.frozenQFunction = frozenQFunction;
+            this.gameCounter = gameCounter;
+            this.random = new Random(seed);
+            this.pastStateAndAction = null;
+        }
+
+        @Override
+        public void initialize(Namespace args) {}
+
+        @Override
+        public Mino makeMove(final GameView game)
+        {
+            final QAgent qAgent = ParallelTrainerAgent.this.getQAgent();
+            ParallelTrainerAgent.this.getMoveCounter().increment();
+
+            Mino action = null;
+            if(qAgent instanceof TetrisQAgent)
+            {
+                final TetrisQAgent tetrisQAgent = (TetrisQAgent)qAgent;
+                action = tetrisQAgent.shouldExplore(game, this.gameCounter, this.random)
+                    ? tetrisQAgent.getExplorationMove(game, this.random)
+                    : tetrisQAgent.getGreedyMove(game, this.frozenQFunction);
+            } else if(qAgent.shouldExplore(game, this.gameCounter))
+            {
+                action = qAgent.getExplorationMove(game);
+            } else
+            {
+                // the generic QAgent can only score with its own (live) q-function
+                action = qAgent.getBestActionAndQValue(game).getFirst();
+            }
+
+            Matrix stateAndAction = qAgent.getQFunctionInput(game, action);
+            if(this.pastStateAndAction != null)
+            {
+                ParallelTrainerAgent.this.getReplayBuffer().addSample(this.pastStateAndAction, qAgent.getReward(game), game);
+            }
+            this.pastStateAndAction = stateAndAction;
+            return action;
+        }
+
+        @Override
+        public void onGameEnd(final GameView game) {}
+    }
+
+    private ExecutorService                         rolloutWorkers;
+    private List<Future<?>>                         runningRollouts;
+    private ExecutorService                         groundTruthWorker;
+    private Future<?>                               cacheWarmup;
+    private Model                                   frozenQFunction;
+    private long                                    frozenPhaseIdx;
+    private MetricsRegistry                         metrics;
+    private Counter                                 moveCounter;
+    private MetricsExporter                         metricsExporter;
+    private long                                    phaseStartGcMillis;
+    private TrainingLog                             trainingLog;
+    private long                                    phaseStartNanos;
+    private long                                    phasePlayNanos;     // training games, rollouts included
+    private long                                    phaseTrainingNanos; // TrainerAgent training and saving
+    private double                                  phaseEvalScoreSum;
+    private long                                    phaseNumEvalGames;
+
+    public ParallelTrainerAgent(String name)
+    {
+        super(name);
+        this.rolloutWorkers = null;
+        this.runningRollouts = new ArrayList<Future<?>>();
+        this.groundTruthWorker = null;
+        this.cacheWarmup = null;
+        this.frozenQFunction = null;
+        this.frozenPhaseIdx = -1;
+        this.metrics = null;
+        this.moveCounter = null;
+        this.metricsExporter = null;
+        this.phaseStartGcMillis = 0;
+        this.trainingLog = null;
+        this.phaseStartNanos = 0;
+        this.phasePlayNanos = 0;
+        this.phaseTrainingNanos = 0;
+        this.phaseEvalScoreSum = 0;
+        this.phaseNumEvalGames = 0;
+    }
+
+    public final ExecutorService getRolloutWorkers() { return this.rolloutWorkers; }
+    public final ExecutorService getGroundTruthWorker() { return this.groundTruthWorker; }
+    private List<Future<?>> getRunningRollouts() { return this.runningRollouts; }
+    public final Model getFrozenQFunction() { return this.frozenQFunction; }
+    public final MetricsRegistry getMetrics() { return this.metrics; }
+    private Counter getMoveCounter() { return this.moveCounter; }
+    public final TrainingLog getTrainingLog() { return this.trainingLog; }
+
+    @Override
+    public void initialize(Namespace args)
+    {
+        // Main calls this before every game
+        super.initialize(args);
+        if(this.rolloutWorkers == null)
+        {
+            ReplacementType replacementType = (ReplacementType)args.get("replacementType");
+            int maxBufferSize = (Integer)args.get("maxBufferSize");
+            // store features at the precision the network computes in
+            Precision precision = this.getQAgent() instanceof TetrisQAgent
+                ? ((TetrisQAgent)this.getQAgent()).getPrecision()
+                : Precision.FLOAT64;
+            if(PRIORITIZED_REPLAY)
+            {
+                PrioritizedReplayBuffer buffer = new PrioritizedReplayBuffer(replacementType, maxBufferSize, precision);
+                this.setReplayBuffer(buffer);
+                if(this.getQAgent() instanceof TetrisQAgent)
+                {
+                    ((TetrisQAgent)this.getQAgent()).setPrioritizedReplayBuffer(buffer);
+                }
+            } else
+            {
+                this.setReplayBuffer(new RingReplayBuffer(replacementType, maxBufferSize, precision));
+            }
+            this.rolloutWorkers = Executors.newFixedThreadPool(NUM_ROLLOUT_WORKERS, runnable -> {
+                Thread thread = new Thread(runnable, "tetris-rollout-worker");
+                thread.setDaemon(true); // Main ends with System.exit, don't keep the jvm alive for us
+                return thread;
+            });
+            this.groundTruthWorker = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tetris-ground-truth-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            System.out.println("[INFO] ParallelTrainerAgent.initialize: playing " + NUM_ROLLOUT_WORKERS
+                               + " extra rollout(s) per training game");
+            this.initializeMetrics((String)args.get("outFile"));
+            this.initializeTrainingLog((String)args.get("outFile"));
+        }
+    }
+
+    private void initializeTrainingLog(final String outFile)
+    {
+        this.phaseStartNanos = System.nanoTime();
+        if(!WRITE_TRAINING_LOG || outFile == null)
+        {
+            return;
+        }
+        try
+        {
+            this.trainingLog = new TrainingLog(outFile + ".events.jsonl");
+        } catch(IOException e)
+        {
+            System.err.println("[ERROR] ParallelTrainerAgent.initializeTrainingLog: unable to open "
+                               + outFile + ".events.jsonl, training without it");
+            e.printStackTrace();
+        }
+    }
+
+    /** Total time (ms) the jvm's garbage collectors have taken so far. */
+    private static long getGcMillis()
+    {
+        long gcMillis = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+        return gcMillis;
+    }
+
+    /**
+     * Shares the q-agent's registry (forward pass latencies, minibatch losses) if it has one and adds
+     * moves (Main's game and the rollouts), replay buffer fill, the phase and gc time to it.
+     */
+    private void initializeMetrics(final String outFile)
+    {
+        this.metrics = this.getQAgent() instanceof TetrisQAgent
+            ? ((TetrisQAgent)this.getQAgent()).getMetrics()
+            : new MetricsRegistry();
+        this.moveCounter = this.getMetrics().counter("moves");
+
+        final ReplayBuffer buffer = this.getReplayBuffer();
+        if(buffer instanceof RingReplayBuffer)
+        {
+            final int capacity = ((RingReplayBuffer)buffer).getCapacity();
+            this.getMetrics().gauge("replay.fill", () -> buffer.size() / (double)capacity);
+        }
+        final GameCounter gameCounter = this.getGameCounter();
+        this.getMetrics().gauge("phase", () -> gameCounter.getCurrentPhaseIdx());
+        this.getMetrics().gauge("jvm.gcMillis", ParallelTrainerAgent::getGcMillis);
+        this.phaseStartGcMillis = ParallelTrainerAgent.getGcMillis();
+
+        if(EXPORT_METRICS && outFile != null)
+        {
+            this.metricsExporter = new MetricsExporter(this.getMetrics(), outFile + ".metrics.jsonl", METRICS_EXPORT_PERIOD_SECS);
+            if(this.getQAgent() instanceof TetrisQAgent)
+            {
+                ((TetrisQAgent)this.getQAgent()).setRecordTrainLoss(true);
+            }
+        }
+    }
+
+    @Override
+    public Mino makeMove(final GameView game)
+    {
+        if(this.getGameCounter().isTrainingGame() && this.getRunningRollouts().isEmpty())
+        {
+            this.startRollouts();
+        }
+        this.getMoveCounter().increment();
+        return super.makeMove(game);
+    }
+
+    @Override
+    public void onGameEnd(final GameView game)
+    {
+        final GameCounter gameCounter = this.getGameCounter();
+        final boolean isTrainingGame = gameCounter.isTrainingGame();
+        if(isTrainingGame)
+        {
+            // every worker sample has to be in the replay buffer before TrainerAgent (possibly) trains on it
+            this.finishRollouts();
+        } else
+        {
+            this.phaseEvalScoreSum += game.getTotalScore();
+            ++this.phaseNumEvalGames;
+        }
+        if(this.getTrainingLog() != null)
+        {
+            this.getTrainingLog().write(new TrainingLog.Event("game")
+                .with("phase", gameCounter.getCurrentPhaseIdx())
+                .with("game", gameCounter.getCurrentGameIdx())
+                .with("eval", !isTrainingGame)
+                .with("score", game.getTotalScore()));
+        }
+
+        final long phaseIdx = gameCounter.getCurrentPhaseIdx();
+        // what the eval collector will hold once TrainerAgent finishes this game (it is reset at the end of the phase)
+        final double evalUtilitySum = this.getModelEvaluator().getObservedAvgTrajectoryReward()
+            + this.getModelEvaluator().getCurrentObservedTrajectoryReward();
+        final long startNanos = System.nanoTime();
+        super.onGameEnd(game);
+        final boolean isPhaseOver = gameCounter.getCurrentPhaseIdx() != phaseIdx;
+        if(isTrainingGame && (!gameCounter.isTrainingGame() || isPhaseOver))
+        {
+            // that was the last training game, so TrainerAgent just trained
+            this.phasePlayNanos = startNanos - this.phaseStartNanos;
+            this.phaseTrainingNanos = System.nanoTime() - startNanos;
+        }
+        if(isPhaseOver)
+        {
+            this.endPhase(phaseIdx, evalUtilitySum);
+        }
+        this.startCacheWarmup();
+    }
+
+    /** Records the gc time of the phase that just ended and logs its "phase" event. */
+    private void endPhase(final long phaseIdx,
+                          final double evalUtilitySum)
+    {
+        final long endNanos = System.nanoTime();
+        final long gcMillis = ParallelTrainerAgent.getGcMillis();
+        final long phaseGcMillis = gcMillis - this.phaseStartGcMillis;
+        this.getMetrics().gauge("phase.gcMillis").set(phaseGcMillis);
+
+        if(this.getTrainingLog() != null)
+        {
+            final long phaseNanos = endNanos - this.phaseStartNanos;
+            this.getTrainingLog().write(new TrainingLog.Event("phase")
+                .with("phase", phaseIdx + 1) // "After N phase(s)", like TrainerAgent's log line
+                .with("avgUtility", evalUtilitySum / this.getGameCounter().getNumEvalGames())
+                .with("avgEvalScore", this.phaseEvalScoreSum / this.phaseNumEvalGames)
+                .with("playSecs", this.phasePlayNanos / 1e9)
+                .with("trainSecs", this.phaseTrainingNanos / 1e9)
+                .with("evalSecs", (phaseNanos - this.phasePlayNanos - this.phaseTrainingNanos) / 1e9)
+                .with("totalSecs", phaseNanos / 1e9)
+                .with("gcMillis", phaseGcMillis));
+        }
+
+        this.phaseStartGcMillis = gcMillis;
+        this.phaseStartNanos = endNanos;
+        this.phasePlayNanos = 0;
+        this.phaseTrainingNanos = 0;
+        this.phaseEvalScoreSum = 0;
+        this.phaseNumEvalGames = 0;
+    }
+
+    /**
+     * Bootstrap targets only read the q-agent's target network, so they can be computed on a background
+     * thread while the next game is played (and the online network keeps changing). By the time
+     * TrainerAgent builds the ground truth, most of it is already in the replay buffer's cache.
+     */
+    private void startCacheWarmup()
+    {
+        if(this.cacheWarmup != null
+           || !(this.getQAgent() instanceof NextStateValueFunction)
+           || !(this.getReplayBuffer() instanceof RingReplayBuffer))
+        {
+            return;
+        }
+
+        final NextStateValueFunction targetValues = (NextStateValueFunction)this.getQAgent();
+        final RingReplayBuffer buffer = (RingReplayBuffer)this.getReplayBuffer();
+        this.cacheWarmup = this.getGroundTruthWorker().submit(() -> buffer.warmNextStateValueCache(targetValues));
+    }
+
+    private void startRollouts()
+    {
+        final GameCounter gameCounter = this.getGameCounter();
+        if(this.frozenQFunction == null || this.frozenPhaseIdx != gameCounter.getCurrentPhaseIdx())
+        {
+            this.frozenQFunction = TargetNetwork.copyOf(this.getQAgent().getQFunction(), this.getQAgent()::initQFunction);
+            this.frozenPhaseIdx = gameCounter.getCurrentPhaseIdx();
+        }
+
+        for(int workerIdx = 0; workerIdx < NUM_ROLLOUT_WORKERS; ++workerIdx)
+        {
+            // seeds are drawn here, on Main's thread, so each worker plays the same minos and makes the same
+            // explore draws in a seeded run. The run as a whole still isn't repeatable: the shared
+            // exploration statistics and the order transitions reach the replay buffer depend on scheduling.
+            final long seed = this.getRandom().nextLong();
+            final RolloutAgent rolloutAgent = new RolloutAgent(this.getFrozenQFunction(), new GameCounter(gameCounter),
+                                                               this.getRandom().nextLong());
+            this.getRunningRollouts().add(this.getRolloutWorkers().submit(() -> {
+                Game rollout = new Game(seed, NUM_MINOS_PER_GAME, rolloutAgent);
+                while(!rollout.isOver())
+                {
+                    rollout.update();
+                }
+            }));
+        }
+    }
+
+    private void finishRollouts()
+    {
+        try
+        {
+            for(Future<?> rollout : this.getRunningRollouts())
+            {
+                rollout.get();
+            }
+        } catch(InterruptedException | ExecutionException e)
+        {
+            System.err.println("[ERROR] ParallelTrainerAgent.finishRollouts: rollout worker failed");
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        this.getRunningRollouts().clear();
+
+        // the buffer's cache must not be written while the ground truth is built from it
+        if(this.cacheWarmup != null)
+        {
+            try
+            {
+                this.cacheWarmup.get();
+            } catch(InterruptedException | ExecutionException e)
+            {
+                System.err.println("[ERROR] ParallelTrainerAgent.finishRollouts: ground truth worker failed");
+                e.printStackTrace();
+                System.exit(-1);
+            }
+            this.cacheWarmup = null;
+        }
+    }
+
+}
@@ -2,12 +2,12 @@ package src.pas.tetris.agents;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 // SYSTEM IMPORTS
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 // import edu.bu.battleship.game.Game;
@@ -27,27 +27,140 @@ import edu.bu.tetris.nn.layers.Dense; // fully connected layer
 import edu.bu.tetris.nn.layers.ReLU;  // some activations (below too)
 import edu.bu.tetris.nn.layers.Tanh;
 import edu.bu.tetris.nn.layers.Sigmoid;
+import edu.bu.tetris.nn.optimizers.AdamOptimizer;
+import edu.bu.tetris.nn.optimizers.SGDOptimizer;
 import edu.bu.tetris.training.data.Dataset;
 import edu.bu.tetris.utils.Pair;
 
+import src.pas.tetris.features.AfterstateValueCache;
+import src.pas.tetris.features.BitBoard;
+import src.pas.tetris.features.BoardStats;
+import src.pas.tetris.features.EdgeScores;
+import src.pas.tetris.features.FeatureExtractor;
+import src.pas.tetris.features.ZobristHash;
+import src.pas.tetris.exploration.PlacementStats;
+import src.pas.tetris.metrics.Histogram;
+import src.pas.tetris.metrics.MetricsRegistry;
+import src.pas.tetris.nn.AsyncCheckpointWriter;
+import src.pas.tetris.nn.TargetNetwork;
+import src.pas.tetris.linalg.MatrixOps;
+import src.pas.tetris.linalg.Precision;
+import src.pas.tetris.nn.layers.FastDense;
+import src.pas.tetris.nn.layers.FastDenseReLU;
+import src.pas.tetris.nn.models.CheckpointSequential;
+import src.pas.tetris.nn.optimizers.FusedAdamOptimizer;
+import src.pas.tetris.nn.optimizers.FusedSGDOptimizer;
+import src.pas.tetris.search.AfterstateScorer;
+import src.pas.tetris.search.BeamSearch;
+import src.pas.tetris.training.data.NextStateValueFunction;
+import src.pas.tetris.training.data.PrioritizedReplayBuffer;
+
 
 public class TetrisQAgent
     extends QAgent
+    implements NextStateValueFunction
 {
 
     
     private Random random;
+    // the scratch objects below are mutable, so every thread gets its own copy. That (and returning
+    // edge scores as immutable EdgeScores) keeps the whole feature/reward path reentrant
+    private ThreadLocal<FeatureExtractor> featureExtractor;
+    private ThreadLocal<BitBoard> bitBoard;
+    private ThreadLocal<BoardStats> boardStats;
+    // set by ParallelTrainerAgent when it trains with prioritized replay, null otherwise
+    private PrioritizedReplayBuffer prioritizedReplayBuffer;
+    // bootstrap targets come from this frozen copy, built from the online network on first use
+    private TargetNetwork targetNetwork;
+    private volatile long numOptimizerSteps;    // also the version of the online network's parameters
+    // in-place twin of the optimizer TrainerAgent hands us (built on first use, keeps its own moments)
+    private Optimizer upstreamOptimizer;
+    private Optimizer fusedOptimizer;
+    private AsyncCheckpointWriter checkpointWriter;
+    // afterstate q-values of the online network, of the frozen copy rollouts use, and of the target network
+    private final AfterstateValueCache onlineValueCache;
+    private final AfterstateValueCache frozenValueCache;
+    private final AfterstateValueCache targetValueCache;
+    // forward pass latencies and minibatch losses (ParallelTrainerAgent adds its own metrics and exports them)
+    private final MetricsRegistry metrics;
+    private final Histogram forwardNanos;
+    private final Histogram trainLoss;
+    // the loss is an extra pass over every minibatch, so it is only computed when someone exports it
+    private volatile boolean recordTrainLoss;
 
     public TetrisQAgent(String name)
     {
         super(name);
         this.random = new Random(12345); // optional to have a seed
+        this.featureExtractor = ThreadLocal.withInitial(FeatureExtractor::new);
+        this.bitBoard = ThreadLocal.withInitial(BitBoard::new);
+        this.boardStats = ThreadLocal.withInitial(BoardStats::new);
+        this.prioritizedReplayBuffer = null;
+        this.targetNetwork = null;
+        this.numOptimizerSteps = 0;
+        this.upstreamOptimizer = null;
+        this.fusedOptimizer = null;
+        this.checkpointWriter = null;
+        this.onlineValueCache = new AfterstateValueCache(AFTERSTATE_CACHE_CAPACITY);
+        this.frozenValueCache = new AfterstateValueCache(AFTERSTATE_CACHE_CAPACITY);
+        this.targetValueCache = new AfterstateValueCache(AFTERSTATE_CACHE_CAPACITY);
+        this.metrics = new MetricsRegistry();
+        this.forwardNanos = this.metrics.histogram("q.forwardNanos");
+        this.trainLoss = this.metrics.histogram("train.loss");
+        this.recordTrainLoss = false;
     }
 
     public Random getRandom() { return this.random; }
+    public FeatureExtractor getFeatureExtractor() { return this.featureExtractor.get(); }
+    public BitBoard getBitBoard() { return this.bitBoard.get(); }
+    public BoardStats getBoardStats() { return this.boardStats.get(); }
+    public PrioritizedReplayBuffer getPrioritizedReplayBuffer() { return this.prioritizedReplayBuffer; }
+    public AfterstateValueCache getOnlineValueCache() { return this.onlineValueCache; }
+    public AfterstateValueCache getFrozenValueCache() { return this.frozenValueCache; }
+    public AfterstateValueCache getTargetValueCache() { return this.targetValueCache; }
+    public MetricsRegistry getMetrics() { return this.metrics; }
+    public boolean getRecordTrainLoss() { return this.recordTrainLoss; }
+
+    public void setPrioritizedReplayBuffer(PrioritizedReplayBuffer buffer) { this.prioritizedReplayBuffer = buffer; }
+    public void setRecordTrainLoss(boolean recordTrainLoss) { this.recordTrainLoss = recordTrainLoss; }
+
+    public synchronized TargetNetwork getTargetNetwork()
+    {
+        if(this.targetNetwork == null)
+        {
+            this.targetNetwork = new TargetNetwork(this.getQFunction(), this::initQFunction);
+        }
+        return this.targetNetwork;
+    }
+
+    // FLOAT32: the network's products (and ParallelTrainerAgent's replay features) use float32 instead of double
+    // (FLOAT64 by default, so training matches the upstream layers exactly)
+    private static final Precision NETWORK_PRECISION = Precision.FLOAT64;
+
+    public Precision getPrecision() { return NETWORK_PRECISION; }
+
+    // save the q-function as a memory-mappable binary Checkpoint (loading still accepts text models)
+    private static final boolean BINARY_CHECKPOINTS = true;
+    // ...and write those checkpoints on a background thread so the end of a phase doesn't wait on the disk
+    private static final boolean ASYNC_CHECKPOINTS = true;
+
+    private synchronized AsyncCheckpointWriter getCheckpointWriter()
+    {
+        if(this.checkpointWriter == null)
+        {
+            this.checkpointWriter = new AsyncCheckpointWriter();
+        }
+        return this.checkpointWriter;
+    }
 
     @Override
     public Model initQFunction()
+    {
+        return this.initQFunction(null);
+    }
+
+    /** The q-function with its weights drawn from random (the upstream unseeded init if null). */
+    public Model initQFunction(final Random random)
     {
         // build a single-hidden-layer feedforward network
         // this example will create a 3-layer neural network (1 hidden layer)
@@ -70,7 +183,7 @@ public class TetrisQAgent
 
         //height(10), lines (clears), holes, blockades,  edge touching another block,
             // edge touching wall, edge touching floor
-        final int totalFeatures = numPixelsInImage + Board.NUM_COLS + 6; //
+        final int totalFeatures = FeatureExtractor.NUM_FEATURES; // numPixelsInImage + Board.NUM_COLS + 6
         // For the first hidden layer to have more neurons allows the network
         // to create a broad range of features combinations and interactions
         // from the input data  
@@ -80,15 +193,28 @@ public class TetrisQAgent
         final int hiddenDim2 = totalFeatures;
         final int outDim = 1;
 
+        // CheckpointSequential: saves a binary checkpoint (parameters + Adam moments) instead of text
         Sequential qFunction = new Sequential();
+        if(BINARY_CHECKPOINTS)
+        {
+            qFunction = new CheckpointSequential(ASYNC_CHECKPOINTS ? this.getCheckpointWriter() : null);
+        }
 
-        qFunction.add(new Dense(totalFeatures, hiddenDim1));
+        // FastDense: same layer as Dense (and same save format), but its products run through a
+        // cache-blocked kernel that splits big minibatches across cores, in NETWORK_PRECISION
         // Using ReLU to ensure good gradient flow, and to take care of the problem
-        // of vanishing gradient
-        qFunction.add(new ReLU()); 
-        qFunction.add(new Dense(hiddenDim1, hiddenDim2));
-        qFunction.add(new ReLU()); // Additional ReLU activation for deeper network
-        qFunction.add(new Dense(hiddenDim2, outDim));
+        // of vanishing gradient (FastDenseReLU = FastDense + ReLU in one pass)
+        if(random == null)
+        {
+            qFunction.add(new FastDenseReLU(totalFeatures, hiddenDim1, NETWORK_PRECISION));
+            qFunction.add(new FastDenseReLU(hiddenDim1, hiddenDim2, NETWORK_PRECISION)); // Additional ReLU activation for deeper network
+            qFunction.add(new FastDense(hiddenDim2, outDim, NETWORK_PRECISION));
+        } else
+        {
+            qFunction.add(new FastDenseReLU(totalFeatures, hiddenDim1, random, NETWORK_PRECISION));
+            qFunction.add(new FastDenseReLU(hiddenDim1, hiddenDim2, random, NETWORK_PRECISION));
+            qFunction.add(new FastDense(hiddenDim2, outDim, random, NETWORK_PRECISION));
+        }
 
         return qFunction;
     }
@@ -111,111 +237,534 @@ public class TetrisQAgent
     @Override
     public Matrix getQFunctionInput(final GameView game,
                                     final Mino potentialAction)
-    {   
-        List<Double> features = new ArrayList<Double>();
-        Matrix resultingOneVectorMatrix = null;
+    {
+        // vector consist of :
+        // pixels of the board after placing the mino (220), height of each column (10),
+        // lines (clears), holes, blockades, edge touching another block, edge touching wall,
+        // edge touching floor
+        // all of it is computed in one pass over the board straight into a reusable double[]
+        // (see FeatureExtractor for the layout) instead of boxing every pixel into a List<Double>
+        double[] features = this.getFeatureExtractor().extract(game.getBoard(), potentialAction);
+
+        // the TrainerAgent holds on to this matrix until the next move, so it has to be a fresh one
+        Matrix qFunctionInput = Matrix.zeros(1, features.length);
+        for(int col = 0; col < features.length; ++col)
+        {
+            qFunctionInput.set(0, col, features[col]);
+        }
+
+        //height of columns in game, number of line completions (clears), holes, blockades, etb, etw, etf
+        return qFunctionInput;
+    }
+
+    /**
+     * Stacks the q-function input of every candidate placement into one (N x numFeatures) matrix,
+     * one row per mino in the same order as the list.
+     */
+    public Matrix getQFunctionInputs(final GameView game,
+                                     final List<Mino> potentialActions)
+    {
+        return this.getQFunctionInputs(game.getBoard(), potentialActions);
+    }
+
+    /** Same as above for placements on any board, e.g. one the lookahead search is imagining. */
+    public Matrix getQFunctionInputs(final Board board,
+                                     final List<Mino> potentialActions)
+    {
+        final int numFeatures = FeatureExtractor.NUM_FEATURES;
+        final FeatureExtractor featureExtractor = this.getFeatureExtractor();
+        Matrix qFunctionInputs = Matrix.zeros(potentialActions.size(), numFeatures);
+
+        int rowIdx = 0;
+        for(Mino potentialAction : potentialActions)
+        {
+            double[] features = featureExtractor.extract(board, potentialAction);
+            for(int col = 0; col < numFeatures; ++col)
+            {
+                qFunctionInputs.set(rowIdx, col, features[col]);
+            }
+            ++rowIdx;
+        }
+        return qFunctionInputs;
+    }
+
+    /** Same as above for PackedMino placements[0, numPlacements), e.g. the lookahead search's, with no Minos built. */
+    public Matrix getQFunctionInputs(final Board board,
+                                     final int[] placements,
+                                     final int numPlacements)
+    {
+        final int numFeatures = FeatureExtractor.NUM_FEATURES;
+        final FeatureExtractor featureExtractor = this.getFeatureExtractor();
+        final double[] features = featureExtractor.getBuffer();
+        Matrix qFunctionInputs = Matrix.zeros(numPlacements, numFeatures);
+        for(int rowIdx = 0; rowIdx < numPlacements; ++rowIdx)
+        {
+            featureExtractor.extract(board, placements[rowIdx], features, 0);
+            for(int col = 0; col < numFeatures; ++col)
+            {
+                qFunctionInputs.set(rowIdx, col, features[col]);
+            }
+        }
+        return qFunctionInputs;
+    }
+
+    /**
+     * Same contract as QAgent.getBestActionAndQValue, but instead of one forward pass (and one 1-row
+     * matmul per Dense layer) per candidate, all candidates are stacked into one matrix and scored with
+     * a single forward pass. This gets called for every move and, through ReplayBuffer.getGroundTruth,
+     * for every sample in the replay buffer, so it is worth not paying the per-call overhead dozens of
+     * times. Ties go to the first candidate, like in QAgent.
+     */
+    @Override
+    public Pair<Mino, Double> getBestActionAndQValue(final GameView game)
+    {
+        if(!BATCH_Q_EVALUATION)
+        {
+            return super.getBestActionAndQValue(game);
+        }
+        return this.getBestActionAndQValue(game, this.getQFunction());
+    }
+
+    /**
+     * Batched argmax using the given q-function instead of this agent's own, e.g. a frozen copy of it
+     * that rollout workers can read while the live one is being trained.
+     */
+    public Pair<Mino, Double> getBestActionAndQValue(final GameView game,
+                                                     final Model qFunction)
+    {
+        if(!AFTERSTATE_CACHE)
+        {
+            return this.getBestActionAndQValue(game, qFunction, null, 0);
+        }
+        if(qFunction == this.getQFunction())
+        {
+            return this.getBestActionAndQValue(game, qFunction, this.onlineValueCache, this.numOptimizerSteps);
+        }
+        // any other model is assumed not to change while it is in use (ParallelTrainerAgent's frozen copy)
+        return this.getBestActionAndQValue(game, qFunction, this.frozenValueCache, 0);
+    }
+
+    /**
+     * Batched argmax. With a cache, candidates whose afterstate (board + placed mino) already has a cached
+     * q-value for (qFunction, version) are not scored again, and candidates that lead to the same
+     * afterstate as an earlier one in the list are scored once. version must change whenever qFunction's
+     * parameters do.
+     */
+    private Pair<Mino, Double> getBestActionAndQValue(final GameView game,
+                                                      final Model qFunction,
+                                                      final AfterstateValueCache cache,
+                                                      final long version)
+    {
+        List<Mino> possibleActions = game.getFinalMinoPositions();
+        final int numActions = possibleActions.size();
+        Mino bestAction = null;
+        double bestQValue = Double.NEGATIVE_INFINITY;
+
         try
         {
-            // vector consist of :
-            //height(10), lines (clears), holes, blockades,  edge touching another block,
-            // edge touching wall, edge touching floor
-            // Calculate the board representation as a grayscale image
-            Matrix grayscaleImage = game.getGrayscaleImage(potentialAction);
+            if(numActions > 0)
+            {
+                double[] qValues = new double[numActions];
+                if(cache == null)
+                {
+                    this.scoreAfterstates(game.getBoard(), qFunction, possibleActions, qValues);
+                } else
+                {
+                    this.scoreAfterstates(game.getBoard(), qFunction, possibleActions, qValues, cache, version);
+                }
 
-            // Flatten the grayscale image to get a base row-vector
-            Matrix flattenedImage = grayscaleImage.flatten();
+                int rowIdx = 0;
+                for(Mino action : possibleActions)
+                {
+                    double qValue = qValues[rowIdx++];
+                    if(qValue > bestQValue || bestAction == null)
+                    {
+                        bestQValue = qValue;
+                        bestAction = action;
+                    }
+                }
+            }
+        } catch(Exception e)
+        {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+
+        if(bestAction == null)
+        {
+            System.err.println("[ERROR] TetrisQAgent.getBestActionAndQValue: agent did not pick a move! num candidates="
+                               + possibleActions.size());
+            System.exit(-1);
+        }
+
+        return new Pair<Mino, Double>(bestAction, bestQValue);
+    }
+
+    /** qValues[i] = q-value of placing actions[i] on board, all scored with one forward pass. */
+    private void scoreAfterstates(final Board board,
+                                  final Model qFunction,
+                                  final List<Mino> actions,
+                                  final double[] qValues) throws Exception
+    {
+        this.forward(qFunction, this.getQFunctionInputs(board, actions), actions.size(), qValues);
+    }
+
+    /** Same as above for PackedMino placements[0, numPlacements). */
+    private void scoreAfterstates(final Board board,
+                                  final Model qFunction,
+                                  final int[] placements,
+                                  final int numPlacements,
+                                  final double[] qValues) throws Exception
+    {
+        this.forward(qFunction, this.getQFunctionInputs(board, placements, numPlacements), numPlacements, qValues);
+    }
+
+    /** qValues[i] = qFunction's output for row i of qFunctionInputs (numRows of them). */
+    private void forward(final Model qFunction,
+                         final Matrix qFunctionInputs,
+                         final int numRows,
+                         final double[] qValues) throws Exception
+    {
+        final long startNanos = System.nanoTime();
+        Matrix output = qFunction.forward(qFunctionInputs);
+        this.forwardNanos.record(System.nanoTime() - startNanos);
+        if(output.getShape().getNumRows() != numRows || output.getShape().getNumCols() != 1)
+        {
+            throw new Exception("[ERROR]: TetrisQAgent.getBestActionAndQValue: output of Qfunction should have shape ("
+                                + numRows + ",1) but got " + output.getShape());
+        }
+        for(int rowIdx = 0; rowIdx < numRows; ++rowIdx)
+        {
+            qValues[rowIdx] = output.get(rowIdx, 0);
+        }
+    }
+
+    /** Scores the afterstates of the actions idxs[0, numIdxs) of a move into scores[0, numIdxs). */
+    private static interface SubsetScorer
+    {
+        public void score(int[] idxs, int numIdxs, double[] scores) throws Exception;
+    }
+
+    /** Same as above, but only the afterstates that miss the cache (each distinct one once) are scored. */
+    private void scoreAfterstates(final Board board,
+                                  final Model qFunction,
+                                  final List<Mino> actions,
+                                  final double[] qValues,
+                                  final AfterstateValueCache cache,
+                                  final long version) throws Exception
+    {
+        final int numActions = actions.size();
+        final long boardHash = ZobristHash.hashBoard(board);
+        long[] keys = new long[numActions];
+        int rowIdx = 0;
+        for(Mino action : actions)
+        {
+            keys[rowIdx++] = boardHash ^ ZobristHash.hashMino(action);
+        }
+
+        this.scoreAfterstates(qFunction, keys, numActions, qValues, cache, version, (idxs, numIdxs, scores) -> {
+            List<Mino> toScore = new ArrayList<Mino>(numIdxs);
+            for(int idx = 0; idx < numIdxs; ++idx)
+            {
+                toScore.add(actions.get(idxs[idx]));
+            }
+            this.scoreAfterstates(board, qFunction, toScore, scores);
+        });
+    }
+
+    /** Same as above for PackedMino placements[0, numPlacements). */
+    private void scoreAfterstates(final Board board,
+                                  final Model qFunction,
+                                  final int[] placements,
+                                  final int numPlacements,
+                                  final double[] qValues,
+                                  final AfterstateValueCache cache,
+                                  final long version) throws Exception
+    {
+        final long boardHash = ZobristHash.hashBoard(board);
+        long[] keys = new long[numPlacements];
+        for(int placementIdx = 0; placementIdx < numPlacements; ++placementIdx)
+        {
+            keys[placementIdx] = boardHash ^ ZobristHash.hashMino(placements[placementIdx]);
+        }
+
+        this.scoreAfterstates(qFunction, keys, numPlacements, qValues, cache, version, (idxs, numIdxs, scores) -> {
+            int[] toScore = new int[numIdxs];
+            for(int idx = 0; idx < numIdxs; ++idx)
+            {
+                toScore[idx] = placements[idxs[idx]];
+            }
+            this.scoreAfterstates(board, qFunction, toScore, numIdxs, scores);
+        });
+    }
 
-            for (int col = 0; col < flattenedImage.getShape().getNumCols(); col++){
-                for(int row = 0; row < flattenedImage.getShape().getNumRows(); row++){
-                    features.add(flattenedImage.get(row, col));
+    /**
+     * The cache part of both of the above: looks keys[0, numActions) up, and hands the misses (each
+     * distinct afterstate once) to scorer.
+     */
+    private void scoreAfterstates(final Model qFunction,
+                                  final long[] keys,
+                                  final int numActions,
+                                  final double[] qValues,
+                                  final AfterstateValueCache cache,
+                                  final long version,
+                                  final SubsetScorer scorer) throws Exception
+    {
+        int[] missIdxs = new int[numActions];
+        final int numMisses = cache.lookup(qFunction, version, keys, numActions, qValues, missIdxs);
+        if(numMisses == 0)
+        {
+            return;
+        }
+
+        // several placements can produce the same afterstate: score the first, copy it to the others
+        int[] firstIdx = new int[numActions];
+        int[] scoredIdxs = new int[numMisses];
+        int numScored = 0;
+        for(int missIdx = 0; missIdx < numMisses; ++missIdx)
+        {
+            final int actionIdx = missIdxs[missIdx];
+            firstIdx[actionIdx] = actionIdx;
+            for(int prevIdx = 0; prevIdx < missIdx; ++prevIdx)
+            {
+                if(keys[missIdxs[prevIdx]] == keys[actionIdx])
+                {
+                    firstIdx[actionIdx] = firstIdx[missIdxs[prevIdx]];
+                    break;
                 }
             }
+            if(firstIdx[actionIdx] == actionIdx)
+            {
+                scoredIdxs[numScored++] = actionIdx;
+            }
+        }
 
-            // Explicitly provide the NN with the height of each column of the Game
-            for (int col = 0; col < grayscaleImage.getShape().getNumCols(); col++) {
-                double colHeight = 0.0;
-                for (int row = 0; row < grayscaleImage.getShape().getNumRows(); row++) {
-                    if (grayscaleImage.get(row, col) != 0) { // meaning not empty
-                        colHeight = grayscaleImage.getShape().getNumRows() - row;
-                        break;
-                    }
+        double[] scores = new double[numScored];
+        scorer.score(scoredIdxs, numScored, scores);
+        for(int scoreIdx = 0; scoreIdx < numScored; ++scoreIdx)
+        {
+            qValues[scoredIdxs[scoreIdx]] = scores[scoreIdx];
+            cache.put(qFunction, version, keys[scoredIdxs[scoreIdx]], scores[scoreIdx]);
+        }
+        for(int missIdx = 0; missIdx < numMisses; ++missIdx)
+        {
+            final int actionIdx = missIdxs[missIdx];
+            qValues[actionIdx] = qValues[firstIdx[actionIdx]];
+        }
+    }
+
+    /**
+     * Scores placements with qFunction, through the same cache getBestActionAndQValue(game, qFunction)
+     * would use. Thread-safe, so the lookahead search can call it from several workers.
+     */
+    public AfterstateScorer getAfterstateScorer(final Model qFunction)
+    {
+        final boolean isOnline = qFunction == this.getQFunction();
+        final AfterstateValueCache cache = !AFTERSTATE_CACHE ? null : isOnline ? this.onlineValueCache : this.frozenValueCache;
+        final long version = isOnline ? this.numOptimizerSteps : 0;
+        return new AfterstateScorer()
+        {
+            @Override
+            public void score(final Board board,
+                              final List<Mino> placements,
+                              final double[] values) throws Exception
+            {
+                if(cache == null)
+                {
+                    TetrisQAgent.this.scoreAfterstates(board, qFunction, placements, values);
+                } else
+                {
+                    TetrisQAgent.this.scoreAfterstates(board, qFunction, placements, values, cache, version);
                 }
-                features.add(colHeight);
             }
 
-            // Evalute potential for line completions and add to features
-            features.add(calculateClears(game.getBoard()));
-             
-            // add number of holes to matrix
-            features.add(calculateHoles(game.getBoard()));
-             
-            // blockades added to features
-            features.add(calculateBlockades(game.getBoard()));
-
-            calculateEdgeScores(game.getBoard());
-            //add features of edge touching certain parts of the board
-            features.add(edgeTouchBlockM);
-
-            features.add(edgeTouchWallM);
-
-            features.add(edgeTouchFloorM);
-
-            // turn the feature List into a Vector
-            Matrix zeroMatrix = Matrix.zeros(1, features.size());
- 
-            for (int row = 0; row < 1; row++) {
-                 for (int col = 0; col < features.size(); col++) {
-                    zeroMatrix.set(row, col, features.get(col));
-                 }
+            @Override
+            public void score(final Board board,
+                              final int[] placements,
+                              final int numPlacements,
+                              final double[] values) throws Exception
+            {
+                if(cache == null)
+                {
+                    TetrisQAgent.this.scoreAfterstates(board, qFunction, placements, numPlacements, values);
+                } else
+                {
+                    TetrisQAgent.this.scoreAfterstates(board, qFunction, placements, numPlacements, values, cache, version);
+                }
             }
-             
-            resultingOneVectorMatrix = zeroMatrix;
+        };
+    }
+
+    /**
+     * The greedy move according to qFunction: the one-ply argmax, or with LOOKAHEAD_SEARCH the move a
+     * BeamSearch over the upcoming minos picks. Ground-truth targets keep using the one-ply
+     * getBestActionAndQValue either way (they need max_a Q(s', a), not a better move).
+     */
+    public Mino getGreedyMove(final GameView game,
+                              final Model qFunction)
+    {
+        if(!LOOKAHEAD_SEARCH)
+        {
+            return this.getBestActionAndQValue(game, qFunction).getFirst();
+        }
 
+        Mino action = null;
+        try
+        {
+            action = new BeamSearch(this.getAfterstateScorer(qFunction), LOOKAHEAD_BEAM_WIDTH, LOOKAHEAD_DEPTH,
+                                    TimeUnit.MILLISECONDS.toNanos(LOOKAHEAD_TIME_BUDGET_MS)).search(game).getFirst();
         } catch(Exception e)
         {
             e.printStackTrace();
             System.exit(-1);
         }
+        if(action == null)
+        {
+            System.err.println("[ERROR] TetrisQAgent.getGreedyMove: agent did not pick a move!");
+            System.exit(-1);
+        }
+        return action;
+    }
 
-        //height of columns in game, number of line completions (clears), holes, blockades, etb, etw, etf
-        return resultingOneVectorMatrix;
-    }
-
-    private double calculateHoles(Matrix matrix) {
-        int holes = 0;
-        for (int col = 0; col < matrix.getShape().getNumCols(); ++col) {
-            boolean blockFound = false;
-            for (int row = 0; row < matrix.getShape().getNumRows(); ++row) {
-                if (matrix.get(row, col) != 0) {
-                    blockFound = true;
-                } else if (blockFound) {
-                    // If a block has been found and the current cell is empty, it's a hole
-                    holes++;
-                }
+    @Override
+    public Mino makeMove(final GameView game)
+    {
+        if(!LOOKAHEAD_SEARCH)
+        {
+            return super.makeMove(game);
+        }
+        return this.getGreedyMove(game, this.getQFunction());
+    }
+
+    // score all candidate placements of a move with one forward pass instead of one per candidate
+    private static final boolean BATCH_Q_EVALUATION = true;
+    // look afterstates up by Zobrist hash before scoring them; entries are dropped whenever the model changes
+    private static final boolean AFTERSTATE_CACHE = true;
+    private static final int AFTERSTATE_CACHE_CAPACITY = 1 << 15;
+    // pick greedy moves with a beam search over the next minos instead of the one-ply argmax (see BeamSearch)
+    private static final boolean LOOKAHEAD_SEARCH = false;
+    private static final int LOOKAHEAD_BEAM_WIDTH = 8;
+    private static final int LOOKAHEAD_DEPTH = 3;             // GameView only shows the next three minos
+    private static final long LOOKAHEAD_TIME_BUDGET_MS = 20;
+
+    /**
+     * Bootstrap value for the ground truth: the best q-value of nextState according to the target
+     * network, not the network being trained. Since it never reads the online network, it is safe to
+     * call from another thread while training runs. The replay buffer caches this per sample until
+     * getTargetVersion() changes.
+     */
+    @Override
+    public double getNextStateValue(final GameView nextState)
+    {
+        final TargetNetwork targetNetwork = this.getTargetNetwork();
+        if(!AFTERSTATE_CACHE)
+        {
+            return this.getBestActionAndQValue(nextState, targetNetwork.getModel(), null, 0).getSecond();
+        }
+        // version first, see TargetNetwork
+        final long version = targetNetwork.getVersion();
+        return this.getBestActionAndQValue(nextState, targetNetwork.getModel(), this.targetValueCache, version).getSecond();
+    }
+
+    @Override
+    public long getTargetVersion()
+    {
+        return this.getTargetNetwork().getVersion();
+    }
+    // use FusedAdamOptimizer / FusedSGDOptimizer (same update, done in place) instead of the optimizer we are given
+    private static final boolean FUSED_OPTIMIZER = true;
+
+    /**
+     * The fused version of the given optimizer. TrainerAgent passes the same optimizer to every
+     * trainQFunction call, so it is only converted once and the fused one's Adam moments carry over
+     * between phases just like the upstream one's would.
+     */
+    private Optimizer getFusedOptimizer(Optimizer optimizer)
+    {
+        if(!FUSED_OPTIMIZER)
+        {
+            return optimizer;
+        }
+
+        if(optimizer != this.upstreamOptimizer)
+        {
+            this.upstreamOptimizer = optimizer;
+            if(optimizer instanceof FusedAdamOptimizer || optimizer instanceof FusedSGDOptimizer)
+            {
+                this.fusedOptimizer = optimizer;
+            } else if(optimizer instanceof AdamOptimizer)
+            {
+                this.fusedOptimizer = FusedAdamOptimizer.of((AdamOptimizer)optimizer);
+            } else if(optimizer instanceof SGDOptimizer)
+            {
+                this.fusedOptimizer = FusedSGDOptimizer.of((SGDOptimizer)optimizer);
+            } else
+            {
+                this.fusedOptimizer = optimizer;
+            }
+
+            if(this.fusedOptimizer instanceof FusedAdamOptimizer)
+            {
+                this.attachToCheckpoint((FusedAdamOptimizer)this.fusedOptimizer);
             }
         }
-        return holes;
+        return this.fusedOptimizer;
     }
 
-    private double calculateBlockades(Matrix matrix){
-        int blockades = 0;
-        for (int col = 0; col < matrix.getShape().getNumCols(); ++col) {
-            boolean holeFound = false;
-            for (int row = 0; row < matrix.getShape().getNumRows(); ++row) {
-                if (matrix.get(row, col) == 0) {
-                    holeFound = true;
-                } else if (holeFound) {
-                    // If a hole has been found and the current cell is filled, it's a blockade
-                    blockades++;
-                }
+    /** Lets a CheckpointSequential q-function save (and restore) the moments of the optimizer training it. */
+    private void attachToCheckpoint(FusedAdamOptimizer optimizer)
+    {
+        if(this.getQFunction() instanceof CheckpointSequential)
+        {
+            try
+            {
+                ((CheckpointSequential)this.getQFunction()).attachOptimizer(optimizer);
+            } catch(Exception e)
+            {
+                System.err.println("[ERROR] TetrisQAgent.attachToCheckpoint: unable to restore the optimizer moments");
+                e.printStackTrace();
+                System.exit(-1);
             }
         }
-        return blockades;
+    }
+
+    // HARD: copy the online network into the target every TARGET_SYNC_EVERY_UPDATES optimizer steps
+    // POLYAK: blend TARGET_POLYAK_TAU of the online network into the target after every optimizer step
+    private static final TargetNetwork.SyncMode TARGET_SYNC_MODE = TargetNetwork.SyncMode.HARD;
+    private static final int TARGET_SYNC_EVERY_UPDATES = 500;
+    private static final double TARGET_POLYAK_TAU = 0.005;
+
+    /** Called after every optimizer step on the online network. */
+    private void updateTargetNetwork()
+    {
+        FastDense.onParametersChanged();
+        ++this.numOptimizerSteps;
+        switch(TARGET_SYNC_MODE)
+        {
+            case HARD:
+                if(this.numOptimizerSteps % TARGET_SYNC_EVERY_UPDATES == 0)
+                {
+                    this.getTargetNetwork().sync(this.getQFunction());
+                }
+                break;
+            case POLYAK:
+                this.getTargetNetwork().softUpdate(this.getQFunction(), TARGET_POLYAK_TAU);
+                break;
+            default:
+                System.err.println("[ERROR] TetrisQAgent.updateTargetNetwork: unknown sync mode " + TARGET_SYNC_MODE);
+                System.exit(-1);
+        }
     }
 
     
     
     public double calculateReward(Matrix matrix) {
+        // pack the image once and collect every statistic in one pass over it
+        return calculateAfterstateReward(this.getBitBoard().load(matrix));
+    }
+
+    /** calculateReward(Matrix) of a grayscale image, given the image already packed into a BitBoard. */
+    private double calculateAfterstateReward(BitBoard afterstate) {
         //(-0.03*heightScore) - (7.5*holes) - (3.5*blockades) + 
         //(8.0*clears)+(3.0*edgeTBlock) + (2.5*edgeTWall) + (5.0*edgeTFloor)
         double weightHeight = -0.03;
@@ -226,47 +775,20 @@ public class TetrisQAgent
         double weightETW = 2.5;
         double weightETF = 5.0;
 
-        // Initialize features
-        double aggregateHeight = 0;
-        double completeLines = 0;
-        double holes = 0;
-        double blockades = 0;
-        double edgeToBlock = 0;
-        double edgeToWall = 0;
-        double edgeToFloor = 0;
-    
-        int matrixWidth = matrix.getShape().getNumCols();
-        int matrixHeight = matrix.getShape().getNumRows();
-        int[] columnHeights = new int[matrixWidth];
-    
-        // Compute heights
-        for (int col = 0; col < matrixWidth; col++) {
-            columnHeights[col] = 0; // Assume the column is empty
-            for (int row = matrixHeight - 1; row >= 0; row--) {
-                if (matrix.get(row, col) != 0.0) {
-                    columnHeights[col] = row+1; // Record the height
-                    break;
-                }
-            }
-            aggregateHeight += columnHeights[col];
-        }
+        BoardStats stats = this.getBoardStats().compute(afterstate);
 
-        // compute holes
-        holes = calculateHoles(matrix);
-    
-        // Count complete lines clears
-        completeLines = calculatePotentialLineCompletion(matrix);
+        // for this reward a column's "height" is the index of its lowest block + 1
+        double aggregateHeight = stats.getSumOfLowestBlocks();
+        double holes = stats.getHoles();
+        double completeLines = stats.getClears();
+        double blockades = stats.getBlockades();
+
+        EdgeScores edgeScores = calculateEdgeScores(stats);
+        // Calculate edgeToBlock, edgeToWall, edgeToFloor (for the image reward the floor term is 0/1)
+        double edgeToBlock = edgeScores.getEdgeTouchBlock();
+        double edgeToWall = edgeScores.getEdgeTouchWall();
+        double edgeToFloor = edgeScores.getTouchesFloor();
 
-        // blockades
-        blockades = calculateBlockades(matrix);
-    
-        calculateEdgeScores(matrix);
-        // Calculate edgeToBlock, edgeToWall, edgeToFloor
-        edgeToBlock = edgeTouchBlockM;
-        edgeToWall = edgeTouchWallM;
-        edgeToFloor = edgeTouchFloorM;
-        
-    
         // Calculate reward using the fitness function
         double reward = (weightHeight*aggregateHeight) - (weightHoles*holes) - (weightBlockades*blockades) + 
         (weightLines*completeLines)+(weightETB*edgeToBlock) + (weightETW*edgeToWall) + (weightETF*edgeToFloor);
@@ -287,15 +809,16 @@ public class TetrisQAgent
         double weightETW = 2.5;  // Edge Touching Wall
         double weightETF = 5.0;  // Edge Touching Floor
 
-        // Calculate board features
-        double aggregateHeight = calculateSumOfHeights(board);
-        double completeLines = calculateClears(board);
-        double holes = calculateHoles(board);
-        double blockades = calculateBlockades(board);
-        calculateEdgeScores(board);
-        double edgeToBlock = edgeTouchBlock;
-        double edgeToWall = edgeTouchWall;
-        double edgeToFloor = edgeTouchFloor;
+        // Calculate board features (one pass to pack the board, one pass over the packed words)
+        BoardStats stats = this.getBoardStats().compute(this.getBitBoard().load(board));
+        double aggregateHeight = stats.getSumOfHeights();
+        double completeLines = stats.getClears();
+        double holes = stats.getHoles();
+        double blockades = stats.getBlockades();
+        EdgeScores edgeScores = calculateEdgeScores(stats);
+        double edgeToBlock = edgeScores.getEdgeTouchBlock();
+        double edgeToWall = edgeScores.getEdgeTouchWall();
+        double edgeToFloor = edgeScores.getEdgeTouchFloor();
 
         // Calculate reward using the fitness function
         double reward = (weightHeight * aggregateHeight) - (weightHoles * holes) - (weightBlockades * blockades) +
@@ -322,12 +845,20 @@ public class TetrisQAgent
     @Override
     public boolean shouldExplore(final GameView game,
                                  final GameCounter gameCounter)
+    {
+        return this.shouldExplore(game, gameCounter, this.getRandom());
+    }
+
+    /** shouldExplore with the caller's own Random, so parallel games don't all contend on this agent's. */
+    public boolean shouldExplore(final GameView game,
+                                 final GameCounter gameCounter,
+                                 final Random random)
     {
         long totalGamesPlayed = gameCounter.getTotalGamesPlayed();
         // Adjust the exploration rate based on the number of games played
         double currentExplorationProb = Math.max(MIN_EXPLORATION_PROB, 
             INITIAL_EXPLORATION_PROB * Math.pow(EXPLORATION_DECAY_RATE, totalGamesPlayed));
-        return this.getRandom().nextDouble() <= currentExplorationProb;
+        return random.nextDouble() <= currentExplorationProb;
 
         // return this.getRandom().nextDouble() <= EXPLORATION_PROB;
     }
@@ -345,40 +876,31 @@ public class TetrisQAgent
      * I would recommend devising your own strategy here.
      */
 
-    HashMap<Mino, Double> minoToReward = new HashMap<Mino, Double>();
-    HashMap<Mino, Integer> minoToCount = new HashMap<Mino, Integer>();
-    int totalMinoCount = 0;
+    // UCB statistics per (type, orientation, column) of the placement, a fixed-size table shared (and
+    // locked) by every game that explores through this agent
+    PlacementStats placementStats = new PlacementStats();
     // Upper Confidence Bound (UCB) parameters
     // private static final double C = Math.sqrt(2);
 
     public Mino getExplorationMove(final GameView game) {
+        return this.getExplorationMove(game, this.getRandom());
+    }
+
+    /** getExplorationMove with the caller's own Random (see shouldExplore). */
+    public Mino getExplorationMove(final GameView game,
+                                   final Random random) {
         List<Mino> possibleActions = game.getFinalMinoPositions();
-    
-        double bestValue = Double.NEGATIVE_INFINITY;
-        Mino bestAction = null;
 
-    
-        for (Mino action : possibleActions) {
-            double u = minoToReward.getOrDefault(action, 0.0);
-            int n = minoToCount.getOrDefault(action, 0);
-            double explorationValue = u / (n + 1) + UCBTunabilityFactor * Math.sqrt(Math.log(totalMinoCount + 1) / (n + 1));
-    
-            if (explorationValue > bestValue) {
-                bestValue = explorationValue;
-                bestAction = action;
-            }
-        }
-    
+        Mino bestAction = placementStats.getBestPlacement(possibleActions, UCBTunabilityFactor);
+
         // If no action has a better value than the very negative starting point, pick random action
         if (bestAction == null) {
-            bestAction = possibleActions.get(this.getRandom().nextInt(possibleActions.size()));
+            bestAction = possibleActions.get(random.nextInt(possibleActions.size()));
         } else {
-            // Update the mino count and rewards for the selected action
-            minoToReward.put(bestAction, minoToReward.getOrDefault(bestAction, 0.0) + calculateRewardMino(game, bestAction));
-            minoToCount.put(bestAction, minoToCount.getOrDefault(bestAction, 0) + 1);
+            // Update the count and rewards of the selected action (and the total count of actions taken)
+            placementStats.update(bestAction, calculateRewardMino(game, bestAction));
         }
-    
-        totalMinoCount++; // Increment the total count of actions taken
+
         return bestAction;
     }
     
@@ -405,14 +927,9 @@ public class TetrisQAgent
     //     totalMinoCount++;
     // }
     private double calculateRewardMino(final GameView game, Mino mino){
-        double inverseScore = 0.0;
-        try {
-            Matrix grayscaleMatrix = game.getGrayscaleImage(mino);
-            inverseScore = calculateReward(grayscaleMatrix);
-        } catch (Exception err) {
-            System.err.println("Failed to generate grayscale image: " + err.getMessage());
-            err.printStackTrace();
-        }
+        // same as calculateReward(game.getGrayscaleImage(mino)) without rendering a new image: the
+        // extractor keeps this move's board packed, so placing the mino on it only patches four blocks
+        double inverseScore = calculateAfterstateReward(this.getFeatureExtractor().loadAfterstate(game.getBoard(), mino));
         if (inverseScore == 0.0){
             throw new IllegalArgumentException("The method getRewardForMinoInMatrix()" + 
             "returned a score of 0.0, which should not be allowed.");
@@ -474,6 +991,22 @@ public class TetrisQAgent
                                LossFunction lossFunction,
                                Optimizer optimizer,
                                long numUpdates)
+    {
+        optimizer = this.getFusedOptimizer(optimizer);
+        PrioritizedReplayBuffer prioritizedReplay = this.getPrioritizedReplayBuffer();
+        if(prioritizedReplay != null && prioritizedReplay.hasTrainingData())
+        {
+            this.trainQFunctionPrioritized(prioritizedReplay, dataset, lossFunction, optimizer, numUpdates);
+        } else
+        {
+            this.trainQFunctionUniform(dataset, lossFunction, optimizer, numUpdates);
+        }
+    }
+
+    private void trainQFunctionUniform(Dataset dataset,
+                                       LossFunction lossFunction,
+                                       Optimizer optimizer,
+                                       long numUpdates)
     {
         for(int epochIdx = 0; epochIdx < numUpdates; ++epochIdx)
         {
@@ -487,11 +1020,86 @@ public class TetrisQAgent
                 try
                 {
                     Matrix YHat = this.getQFunction().forward(batch.getFirst());
+                    if(this.getRecordTrainLoss())
+                    {
+                        this.trainLoss.record(lossFunction.forward(YHat, batch.getSecond()).get(0, 0));
+                    }
 
                     optimizer.reset();
                     this.getQFunction().backwards(batch.getFirst(),
                                                   lossFunction.backwards(YHat, batch.getSecond()));
                     optimizer.step();
+                    this.updateTargetNetwork();
+                } catch(Exception e)
+                {
+                    e.printStackTrace();
+                    System.exit(-1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same number of minibatches per epoch as the uniform version, but each minibatch is drawn from the
+     * prioritized replay buffer (which holds the same X / ground truth the dataset was built from), the
+     * loss gradient of every sample is scaled by its importance-sampling weight, and the TD errors of
+     * the minibatch become the samples' new priorities. beta is annealed from INITIAL_BETA to 1 over the
+     * epochs so the bias correction is complete by the end of training.
+     */
+    private void trainQFunctionPrioritized(PrioritizedReplayBuffer prioritizedReplay,
+                                           Dataset dataset,
+                                           LossFunction lossFunction,
+                                           Optimizer optimizer,
+                                           long numUpdates)
+    {
+        final Matrix X = prioritizedReplay.getTrainingX();
+        final Matrix YGt = prioritizedReplay.getTrainingYGt();
+        final int numCols = X.getShape().getNumCols();
+        final int batchSize = (int)Math.min(dataset.getBatchSize(), dataset.size());
+        final long numBatches = (dataset.size() + batchSize - 1) / batchSize;
+
+        final double[] weights = new double[batchSize];
+        final double[] tdErrors = new double[batchSize];
+        final Matrix batchX = Matrix.zeros(batchSize, numCols);
+        final Matrix batchYGt = Matrix.zeros(batchSize, 1);
+        final Matrix batchWeights = Matrix.zeros(batchSize, 1);
+
+        for(int epochIdx = 0; epochIdx < numUpdates; ++epochIdx)
+        {
+            double beta = PrioritizedReplayBuffer.INITIAL_BETA
+                + (1.0 - PrioritizedReplayBuffer.INITIAL_BETA) * (epochIdx + 1) / numUpdates;
+
+            for(long batchIdx = 0; batchIdx < numBatches; ++batchIdx)
+            {
+                int[] sampleIdxs = prioritizedReplay.sample(batchSize, beta, this.getRandom(), weights);
+                for(int row = 0; row < batchSize; ++row)
+                {
+                    for(int col = 0; col < numCols; ++col)
+                    {
+                        batchX.set(row, col, X.get(sampleIdxs[row], col));
+                    }
+                    batchYGt.set(row, 0, YGt.get(sampleIdxs[row], 0));
+                    batchWeights.set(row, 0, weights[row]);
+                }
+
+                try
+                {
+                    Matrix YHat = this.getQFunction().forward(batchX);
+                    for(int row = 0; row < batchSize; ++row)
+                    {
+                        tdErrors[row] = YHat.get(row, 0) - batchYGt.get(row, 0);
+                    }
+                    prioritizedReplay.updatePriorities(sampleIdxs, tdErrors);
+                    if(this.getRecordTrainLoss())
+                    {
+                        this.trainLoss.record(lossFunction.forward(YHat, batchYGt).get(0, 0));
+                    }
+
+                    optimizer.reset();
+                    this.getQFunction().backwards(batchX,
+                                                  MatrixOps.emulInPlace(lossFunction.backwards(YHat, batchYGt), batchWeights));
+                    optimizer.step();
+                    this.updateTargetNetwork();
                 } catch(Exception e)
                 {
                     e.printStackTrace();
@@ -521,16 +1129,17 @@ public class TetrisQAgent
     {   
         //height, lines (clears), holes, blockades,  edge touching another block,
          // edge touching wall, edge touching floor
-        Board board = game.getBoard();
-        double heightScore = calculateSumOfHeights(board);
+        // every term comes out of one fused pass over the packed board
+        BoardStats stats = this.getBoardStats().compute(this.getBitBoard().load(game.getBoard()));
+        double heightScore = stats.getSumOfHeights();
 
-        double clears = calculateClears(board);
+        double clears = stats.getClears();
 
-        double holes = calculateHoles(board);
+        double holes = stats.getHoles();
         
-        double blockades = calculateBlockades(board);
+        double blockades = stats.getBlockades();
 
-        double score = calculateEdgeScores(board);
+        double score = calculateEdgeScores(stats).getScore();
         
         double reward = (-0.03*heightScore) - (7.5*holes) - (3.5*blockades) + 
             (8.0*clears)+score;
@@ -545,23 +1154,6 @@ public class TetrisQAgent
             return Math.exp(Math.log(score));
         }
     }
-    private double calculatePotentialLineCompletion(Matrix matrix) {
-        double completeLines = 0.0;
-        for (int row = 0; row < matrix.getShape().getNumRows(); row++) {
-            boolean complete = true;
-            for (int col = 0; col < matrix.getShape().getNumCols(); col++) {
-                if (matrix.get(row, col) == 0) {
-                    complete = false;
-                    break;
-                }
-            }
-            if (complete) {
-                completeLines++;
-            }
-        }
-        return completeLines;
-    }
-
     // private double calculateHeightScore(Board board) {
     //     final int maxRows = Board.NUM_ROWS;
     //     double totalHeight = 0;
@@ -586,185 +1178,14 @@ public class TetrisQAgent
     //     return Math.exp(1 - (0.15 * maxColumnHeight));
     // }
 
-    private double calculateBumpiness(Matrix matrix){
-        double bumpiness = 0.0;
-
-        int matrixWidth = matrix.getShape().getNumCols();
-        int matrixHeight = matrix.getShape().getNumRows();
-        int[] columnHeights = new int[matrixWidth];
-    
-        // Compute heights
-        for (int col = 0; col < matrixWidth; col++) {
-            columnHeights[col] = 0; // Assume the column is empty
-            for (int row = matrixHeight - 1; row >= 0; row--) {
-                if (matrix.get(row, col) != 0.0) {
-                    columnHeights[col] = row; // Record the height
-                    break;
-                }
-            }
-        }
-        // Calculate bumpiness
-        for (int col = 0; col < matrixWidth - 1; col++) {
-            bumpiness += Math.abs(columnHeights[col] - columnHeights[col + 1]);
-        }
-        return bumpiness;
+    private EdgeScores calculateEdgeScores(BoardStats stats) {
+        // hugging the wall (2 per cell), hugging the floor (2 per cell) and
+        // flattening, i.e. touching an existing block left, right or below (3 per cell)
+        return EdgeScores.of(stats);
     }
 
-    
-
-    private List<Integer> getFullLines(Board board) {
-        List<Integer> fullLines = new ArrayList<>();
-        boolean isLineFull;
-    
-        // Loop through every row from the bottom to the top of the board
-        for (int row = 0; row < Board.NUM_ROWS; row++) {
-            isLineFull = true; // Assume the line is full until proven otherwise
-    
-            // Check each column in the current row
-            for (int col = 0; col < Board.NUM_COLS; col++) {
-                if (!board.isCoordinateOccupied(col, row)) {
-                    // If any column is not occupied, the line is not full
-                    isLineFull = false;
-                    break;
-                }
-            }
-    
-            // If after checking all columns, the line is full, add it to the list
-            if (isLineFull) {
-                fullLines.add(row);
-            }
-        }
-    
-        return fullLines;
-    }
-
-    private double calculateHoles(Board board) {
-        int holes = 0;
-        for (int col = 0; col < board.NUM_COLS; ++col) {
-           boolean blockFound = false;
-           for (int row = 0; row < board.NUM_ROWS; ++row) {
-                if (board.isCoordinateOccupied(col, row)) {
-                    blockFound = true;
-                } else if (blockFound) {
-                    holes++;
-                }
-            }
-        }
-        return holes;
-    }
-  
-    private double calculateBlockades(Board board) {
-        int blockades = 0;
-        for (int col = 0; col < board.NUM_COLS; ++col) {
-           boolean holeFound = false;
-           for (int row = 0; row < board.NUM_ROWS; ++row) {
-              if (!board.isCoordinateOccupied(col, row)) {
-                 holeFound = true;
-              } else if (holeFound) {
-                 blockades++;
-              }
-           }
-        }
-        return blockades;
-    }
-  
-    private double calculateClears(Board board) {
-        List<Integer> fullLines = getFullLines(board);
-        return fullLines.size();
-    }
-  
-    private double calculateSumOfHeights(Board board) {
-        int sumOfHeights = 0;
-        for (int col = 0; col < board.NUM_COLS; ++col) {
-           for (int row = 0; row < board.NUM_ROWS; ++row) {
-              if (board.isCoordinateOccupied(col, row)) {
-                 sumOfHeights += (board.NUM_ROWS - row);
-                 break;
-              }
-           }
-        }
-        return sumOfHeights;
-    }
-
-    public double edgeTouchBlock;  
-    public double edgeTouchWall;
-    public double edgeTouchFloor;
-    
-    private double calculateEdgeScores(Board board) {
-        double score = 0.0;
-        edgeTouchBlock = 0.0;
-        edgeTouchWall = 0.0;
-        edgeTouchFloor = 0.0;
-        for (int row = 0; row < board.NUM_ROWS; ++row) {
-           for (int col = 0; col < board.NUM_COLS; ++col) {
-              // Check if there is a block at this position
-              if (board.isCoordinateOccupied(col, row)) {
-        
-                 // Check for hugging the wall (edge of the current block touching edge of the wall)
-                if (col == 0 || col == board.NUM_COLS - 1) {
-                    score += 2.0;
-                    edgeTouchWall += 1.0;
-                }
-                // Check for hugging the floor (edge of the current block touching the floor)
-                if (row == board.NUM_ROWS - 1) {
-                    score += 2.0;
-                    edgeTouchFloor += 1.0;
-                }
-                // Check for flattening (rewarding if the edge of the current block touches an existing block)
-                if ((col > 0 && board.isCoordinateOccupied(col - 1, row)) || (col < board.NUM_COLS - 1 && board.isCoordinateOccupied(col + 1, row)) || (row < board.NUM_ROWS - 1 && board.isCoordinateOccupied(col, row + 1))) {
-                    score += 3.0;
-                    edgeTouchBlock += 1.0;
-                }
-
-              }
-           }
-        }
-        
-        return score;
-    
-    }
-    
-
-    public double edgeTouchBlockM;
-    public double edgeTouchWallM;
-    public double edgeTouchFloorM;
-
-    public double calculateEdgeScores(Matrix matrix) {
-        double score = 0.0;
-        edgeTouchBlockM = 0.0;
-        edgeTouchWallM = 0.0;
-        edgeTouchFloorM = 0.0;
-
-        int numRows = matrix.getShape().getNumRows();
-        int numCols = matrix.getShape().getNumCols();
-
-        for (int row = 0; row < numRows; ++row) {
-            for (int col = 0; col < numCols; ++col) {
-                // Check if there is a block at this position
-                if (matrix.get(row, col) != 0.0) {
-                    //check for hugging wall
-                    if(col == 0 || col == numCols - 1){
-                        score += 2.0;
-                        edgeTouchWallM += 1;
-                    }
-                    //check for hugging floor
-                    if (row == numRows - 1){
-                        score += 2;
-                        edgeTouchFloorM = 1;
-                    }
-                    //check for flattening
-                    if((col>0 && matrix.get(row, col - 1) != 0.0) ||
-                        (col<numCols -1) && matrix.get(row, col+1) != 0.0 ||
-                        (row < numRows - 1 && matrix.get(row + 1 , col) != 0.0)){
-                        score += 3;
-                        edgeTouchBlockM += 1;
-                    }
-
-                }
-            }
-        }
-
-        return score;
+    public EdgeScores calculateEdgeScores(Matrix matrix) {
+        return calculateEdgeScores(this.getBoardStats().compute(this.getBitBoard().load(matrix)));
     }
           
 
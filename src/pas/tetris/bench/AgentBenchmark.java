@@ -0,0 +1,99 @@
+package src.pas.tetris.bench;
+
+
+// SYSTEM IMPORTS
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Game.GameView;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.linalg.Matrix;
+import src.pas.tetris.agents.TetrisQAgent;
+
+
+/**
+ * Per-call cost of the agent's per-move hot paths over the seeded boards of BenchFixtures. Each
+ * invocation handles the next recorded view (round robin), so the numbers are an average over empty,
+ * mid-game and nearly full boards rather than the cost of one lucky board.
+ *
+ * See BenchFixtures for how to build and run these (with -prof gc for the allocation rate).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class AgentBenchmark
+    extends Object
+{
+
+    private BenchFixtures fixtures;
+    private TetrisQAgent explorationAgent;
+    private int viewIdx;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.fixtures = BenchFixtures.create();
+        this.viewIdx = 0;
+    }
+
+    // getExplorationMove keeps per-mino visit counts, so every iteration starts from a fresh agent
+    // instead of measuring ever larger tables
+    @Setup(Level.Iteration)
+    public void resetExplorationAgent()
+    {
+        this.explorationAgent = BenchFixtures.newAgent();
+    }
+
+    private int nextViewIdx()
+    {
+        final int viewIdx = this.viewIdx;
+        this.viewIdx = (viewIdx + 1) % this.fixtures.size();
+        return viewIdx;
+    }
+
+    /** Feature vector of the move the agent actually made from the view. */
+    @Benchmark
+    public Matrix getQFunctionInput()
+    {
+        final int viewIdx = this.nextViewIdx();
+        return this.fixtures.getAgent().getQFunctionInput(this.fixtures.getViews().get(viewIdx),
+                                                          this.fixtures.getActions().get(viewIdx));
+    }
+
+    /** Feature matrix of every candidate placement, i.e. what scoring one move costs before the network. */
+    @Benchmark
+    public Matrix getQFunctionInputs()
+    {
+        final GameView view = this.fixtures.getViews().get(this.nextViewIdx());
+        return this.fixtures.getAgent().getQFunctionInputs(view, view.getFinalMinoPositions());
+    }
+
+    @Benchmark
+    public double getReward()
+    {
+        return this.fixtures.getAgent().getReward(this.fixtures.getViews().get(this.nextViewIdx()));
+    }
+
+    @Benchmark
+    public Mino getExplorationMove()
+    {
+        return this.explorationAgent.getExplorationMove(this.fixtures.getViews().get(this.nextViewIdx()));
+    }
+
+}
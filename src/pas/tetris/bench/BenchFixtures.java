@@ -0,0 +1,142 @@
+package src.pas.tetris.bench;
+
+
+// SYSTEM IMPORTS
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Game;
+import edu.bu.tetris.game.Game.GameView;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.training.data.Dataset;
+import src.pas.tetris.agents.TetrisQAgent;
+import src.pas.tetris.nn.TargetNetwork;
+
+
+/**
+ * Seeded inputs for the benchmarks in this package. Everything is derived from fixed seeds, so two runs
+ * (or two commits) measure the same boards:
+ *
+ *      - a TetrisQAgent whose q-function is initialized from NETWORK_SEED (no model file)
+ *      - the GameViews seen while that agent plays greedily through Game(seed, numMinos, agent) games,
+ *        i.e. a mix of empty, mid-game and nearly full boards
+ *      - a training set with one (q-function input, reward) row per recorded view
+ *
+ * Nothing in here depends on JMH, so it can also be used from a plain main().
+ *
+ * The benchmarks are not part of tetris.srcs. They need jmh-core and jmh-generator-annprocess (and their
+ * jopt-simple and commons-math3 dependencies), which are not checked in: runBench.sh downloads them from
+ * Maven Central into bench-lib/ once, compiles tetris-bench.srcs (the annotation processor generates the
+ * harness next to the classes) and runs JMH:
+ *
+ *      ./runBench.sh                                   every benchmark, with -prof gc
+ *      ./runBench.sh AgentBenchmark.getReward -f 1     any JMH arguments (e.g. a regex) are passed on
+ *
+ * -prof gc adds gc.alloc.rate.norm (bytes allocated per call) next to the time per call.
+ */
+public class BenchFixtures
+    extends Object
+{
+
+    public static final long    GAME_SEED           = 440L;
+    public static final int     NUM_GAMES           = 8;
+    public static final int     NUM_MINOS_PER_GAME  = 100;
+    public static final long    DATASET_SEED        = 12345L;
+    public static final long    NETWORK_SEED        = 440440L;
+
+    private final TetrisQAgent      agent;
+    private final List<GameView>    views;
+    private final List<Mino>        actions;   // the move the agent made from each view
+
+    private BenchFixtures(TetrisQAgent agent,
+                          List<GameView> views,
+                          List<Mino> actions)
+    {
+        this.agent = agent;
+        this.views = Collections.unmodifiableList(views);
+        this.actions = Collections.unmodifiableList(actions);
+    }
+
+    public final TetrisQAgent getAgent() { return this.agent; }
+    public final List<GameView> getViews() { return this.views; }
+    public final List<Mino> getActions() { return this.actions; }
+    public final int size() { return this.views.size(); }
+
+    /**
+     * An initialized TetrisQAgent (same setup as QAgent.initialize with no -i model file), except that
+     * its q-function weights come from NETWORK_SEED, so every run plays (and measures) the same boards.
+     */
+    public static TetrisQAgent newAgent()
+    {
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("inFile", "");
+
+        TetrisQAgent agent = new TetrisQAgent("BenchAgent");
+        agent.initialize(new Namespace(args));
+        TargetNetwork.copyParameters(agent.initQFunction(new Random(NETWORK_SEED)), agent.getQFunction());
+        return agent;
+    }
+
+    /** Plays NUM_GAMES seeded games and records every view the agent was asked to move from. */
+    public static BenchFixtures create()
+    {
+        TetrisQAgent agent = BenchFixtures.newAgent();
+        List<GameView> views = new ArrayList<GameView>();
+        List<Mino> actions = new ArrayList<Mino>();
+
+        for(int gameIdx = 0; gameIdx < NUM_GAMES; ++gameIdx)
+        {
+            Game game = new Game(GAME_SEED + gameIdx, NUM_MINOS_PER_GAME, agent);
+            while(!game.isOver())
+            {
+                // getView() copies the board, so the view stays valid after the game moves on
+                GameView view = game.getView();
+                if(!view.getFinalMinoPositions().isEmpty())
+                {
+                    views.add(view);
+                    actions.add(agent.getBestActionAndQValue(view).getFirst());
+                }
+                game.update();
+            }
+        }
+
+        if(views.isEmpty())
+        {
+            System.err.println("[ERROR] BenchFixtures.create: seeded games produced no moves");
+            System.exit(-1);
+        }
+        return new BenchFixtures(agent, views, actions);
+    }
+
+    /** One row per recorded view: the q-function input of the move made and the reward of the view. */
+    public Dataset createDataset(final long batchSize)
+    {
+        Matrix X = null;
+        Matrix YGt = Matrix.zeros(this.size(), 1);
+        for(int rowIdx = 0; rowIdx < this.size(); ++rowIdx)
+        {
+            Matrix features = this.getAgent().getQFunctionInput(this.getViews().get(rowIdx),
+                                                                this.getActions().get(rowIdx));
+            if(X == null)
+            {
+                X = Matrix.zeros(this.size(), features.getShape().getNumCols());
+            }
+            for(int col = 0; col < features.getShape().getNumCols(); ++col)
+            {
+                X.set(rowIdx, col, features.get(0, col));
+            }
+            YGt.set(rowIdx, 0, this.getAgent().getReward(this.getViews().get(rowIdx)));
+        }
+        return new Dataset(X, YGt, batchSize, new Random(DATASET_SEED));
+    }
+
+}
@@ -0,0 +1,363 @@
+package src.pas.tetris.bench;
+
+
+// SYSTEM IMPORTS
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.agents.Agent;
+import edu.bu.tetris.agents.QAgent;
+import edu.bu.tetris.game.Game;
+import edu.bu.tetris.game.Game.GameView;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.game.minos.Mino.MinoType;
+
+
+/**
+ * Headless throughput runner: plays numGames seeded Game(seed, numMinos, agent) games on a thread pool,
+ * without Main's training loop or GUI, and reports games/sec, placements/sec and the p50/p99 latency of
+ * a move (Game.update: computing the placements, the agent's makeMove, placing the mino) and of the
+ * agent's makeMove alone. Moves also include putting the placements into a canonical order (see
+ * TimedAgent), a few microseconds.
+ *
+ *      java --add-modules jdk.incubator.vector -cp "./lib/*:." src.pas.tetris.bench.GameBench \
+ *          -a src.pas.tetris.agents.TetrisQAgent -i params/qFunction10.model -g 2000 -w 8
+ *
+ * The seed of every game is drawn up front from -s, and every game gets its own agent state, so which
+ * thread plays which game doesn't matter: the scores (and their checksum, printed at the end) are the
+ * same from run to run and from build to build unless the agent's moves change. Compare the checksum
+ * before comparing throughput.
+ *
+ * Agents:
+ *      random          uniformly random placements from a per-game seeded Random (the upstream
+ *                      RandomAgent can't be seeded)
+ *      <QAgent class>  one instance, loaded with -i, shared by all games and playing greedily
+ *                      (QAgent.makeMove), i.e. the way it plays eval games. It must be thread-safe.
+ *                      Without -i its q-function is initialized from an unseeded Random, so only
+ *                      runs with a model file are reproducible (and not with a time-budgeted
+ *                      TetrisQAgent.LOOKAHEAD_SEARCH either)
+ *      <Agent class>   a new instance per game
+ */
+public class GameBench
+    extends Object
+{
+
+    public static final String RANDOM_AGENT = "random";
+
+    /** Picks a uniformly random placement; seeded, unlike edu.bu.tetris.agents.RandomAgent. */
+    private static class SeededRandomAgent
+        extends Agent
+    {
+        private final Random random;
+
+        public SeededRandomAgent(long seed)
+        {
+            super("SeededRandomAgent");
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void initialize(Namespace args) {}
+
+        @Override
+        public Mino makeMove(final GameView game)
+        {
+            List<Mino> possibleActions = game.getFinalMinoPositions();
+            return possibleActions.get(this.random.nextInt(possibleActions.size()));
+        }
+
+        @Override
+        public void onGameEnd(final GameView game) {}
+    }
+
+    // placements in a fixed order: Game hands them over from a HashSet, and Mino.hashCode uses the
+    // identity hash of its Orientation, so the upstream order changes from run to run (and thread to thread)
+    private static final Comparator<Mino> CANONICAL_ORDER = Comparator
+        .comparing((Mino mino) -> mino.getOrientation())
+        .thenComparingInt(mino -> mino.getPivotBlockCoordinate().getXCoordinate())
+        .thenComparingInt(mino -> mino.getPivotBlockCoordinate().getYCoordinate());
+
+    /**
+     * Delegates to another agent, with the placements in CANONICAL_ORDER (so random picks and argmax
+     * ties don't depend on the run), and records how long each of its moves took.
+     */
+    private static class TimedAgent
+        extends Agent
+    {
+        private final Agent      agent;
+        private final List<Long> moveNanos;
+
+        public TimedAgent(Agent agent)
+        {
+            super("TimedAgent");
+            this.agent = agent;
+            this.moveNanos = new ArrayList<Long>();
+        }
+
+        public final List<Long> getMoveNanos() { return this.moveNanos; }
+
+        @Override
+        public void initialize(Namespace args) {}
+
+        @Override
+        public Mino makeMove(final GameView game)
+        {
+            List<Mino> possibleActions = new ArrayList<Mino>(game.getFinalMinoPositions());
+            possibleActions.sort(CANONICAL_ORDER);
+            GameView canonicalGame = new GameView(new LinkedHashSet<Mino>(possibleActions), game.getBoard(),
+                                                  new ArrayDeque<MinoType>(game.getNextThreeMinoTypes()),
+                                                  game.getTotalScore(), game.getScoreThisTurn());
+
+            final long startNanos = System.nanoTime();
+            Mino action = this.agent.makeMove(canonicalGame);
+            this.moveNanos.add(System.nanoTime() - startNanos);
+            return action;
+        }
+
+        @Override
+        public void onGameEnd(final GameView game) {}
+    }
+
+    /** Outcome of one game. */
+    private static class GameResult
+        extends Object
+    {
+        private final int    score;
+        private final long[] updateNanos;  // one per placement
+        private final long[] agentNanos;
+
+        public GameResult(int score,
+                          long[] updateNanos,
+                          long[] agentNanos)
+        {
+            this.score = score;
+            this.updateNanos = updateNanos;
+            this.agentNanos = agentNanos;
+        }
+
+        public final int getScore() { return this.score; }
+        public final long[] getUpdateNanos() { return this.updateNanos; }
+        public final long[] getAgentNanos() { return this.agentNanos; }
+        public final int getNumPlacements() { return this.updateNanos.length; }
+    }
+
+    private final String      agentName;
+    private final int         numMinos;
+    private final QAgent      sharedQAgent;    // null unless agentName is a QAgent
+    private final Namespace   agentArgs;
+
+    public GameBench(String agentName,
+                     String inFile,
+                     int numMinos) throws Exception
+    {
+        this.agentName = agentName;
+        this.numMinos = numMinos;
+
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("inFile", inFile);
+        this.agentArgs = new Namespace(args);
+
+        Agent agent = RANDOM_AGENT.equals(agentName) ? null : this.newAgent(0L);
+        this.sharedQAgent = agent instanceof QAgent ? (QAgent)agent : null;
+    }
+
+    public final String getAgentName() { return this.agentName; }
+    public final int getNumMinos() { return this.numMinos; }
+
+    private Agent newAgent(final long seed) throws Exception
+    {
+        if(RANDOM_AGENT.equals(this.getAgentName()))
+        {
+            return new SeededRandomAgent(seed);
+        }
+        if(this.sharedQAgent != null)
+        {
+            return this.sharedQAgent;
+        }
+        Agent agent = (Agent)Class.forName(this.getAgentName()).getConstructor(String.class).newInstance("BenchAgent");
+        agent.initialize(this.agentArgs);
+        return agent;
+    }
+
+    private static long[] toArray(final List<Long> values)
+    {
+        long[] array = new long[values.size()];
+        for(int idx = 0; idx < array.length; ++idx)
+        {
+            array[idx] = values.get(idx);
+        }
+        return array;
+    }
+
+    /** Plays one game with the given seed (used both for the minos and for the agent, if it is random). */
+    public GameResult play(final long seed) throws Exception
+    {
+        TimedAgent agent = new TimedAgent(this.newAgent(seed));
+        Game game = new Game(seed, this.getNumMinos(), agent);
+
+        List<Long> updateNanos = new ArrayList<Long>(this.getNumMinos());
+        while(!game.isOver())
+        {
+            final long startNanos = System.nanoTime();
+            game.update();
+            updateNanos.add(System.nanoTime() - startNanos);
+        }
+        // the last update only found out that the game was over
+        final int numPlacements = agent.getMoveNanos().size();
+        return new GameResult(game.getTotalScore(),
+                              Arrays.copyOf(GameBench.toArray(updateNanos), numPlacements),
+                              GameBench.toArray(agent.getMoveNanos()));
+    }
+
+    /** Plays every seed on numThreads threads, results in seed order. */
+    public List<GameResult> playAll(final long[] seeds,
+                                    final int numThreads) throws Exception
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "tetris-bench-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            List<Future<GameResult>> futures = new ArrayList<Future<GameResult>>(seeds.length);
+            for(long seed : seeds)
+            {
+                futures.add(workers.submit(() -> this.play(seed)));
+            }
+            List<GameResult> results = new ArrayList<GameResult>(seeds.length);
+            for(Future<GameResult> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        } finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    private static long[] drawSeeds(final SplittableRandom random,
+                                    final int numGames)
+    {
+        long[] seeds = new long[numGames];
+        for(int gameIdx = 0; gameIdx < numGames; ++gameIdx)
+        {
+            seeds[gameIdx] = random.nextLong();
+        }
+        return seeds;
+    }
+
+    private static long percentile(final long[] sorted,
+                                   final double quantile)
+    {
+        if(sorted.length == 0)
+        {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int)Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    private static String formatLatency(final long[] nanos)
+    {
+        Arrays.sort(nanos);
+        return String.format("p50=%.1fus p99=%.1fus max=%.1fus",
+                             GameBench.percentile(nanos, 0.50) / 1e3,
+                             GameBench.percentile(nanos, 0.99) / 1e3,
+                             (nanos.length > 0 ? nanos[nanos.length - 1] : 0) / 1e3);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        ArgumentParser parser = ArgumentParsers.newFor("GameBench").build()
+            .defaultHelp(true)
+            .description("Play seeded headless tetris games and report throughput");
+        parser.addArgument("-a", "--agent").type(String.class).setDefault(RANDOM_AGENT)
+            .help("\"random\" or the fully-qualified class of the agent to play with");
+        parser.addArgument("-i", "--inFile").type(String.class).setDefault("")
+            .help("params file for a QAgent (empty: freshly initialized q-function)");
+        parser.addArgument("-g", "--numGames").type(Integer.class).setDefault(1000)
+            .help("number of games to measure");
+        parser.addArgument("-u", "--numWarmupGames").type(Integer.class).setDefault(50)
+            .help("number of games to play (and not measure) first, so the jit has compiled the hot paths");
+        parser.addArgument("-m", "--numMinos").type(Integer.class).setDefault(100)
+            .help("number of minos per game (Main uses 100)");
+        parser.addArgument("-s", "--seed").type(Long.class).setDefault(440L)
+            .help("seed the seeds of all games are drawn from");
+        parser.addArgument("-w", "--numThreads").type(Integer.class).setDefault(Runtime.getRuntime().availableProcessors())
+            .help("number of games played at once");
+
+        Namespace ns = null;
+        try
+        {
+            ns = parser.parseArgs(args);
+        } catch(ArgumentParserException e)
+        {
+            parser.handleError(e);
+            System.exit(-1);
+        }
+
+        final int numGames = ns.getInt("numGames");
+        final int numThreads = ns.getInt("numThreads");
+        GameBench bench = new GameBench(ns.getString("agent"), ns.getString("inFile"), ns.getInt("numMinos"));
+
+        // warmup seeds come from their own stream, so -u doesn't change the measured games
+        SplittableRandom seedRandom = new SplittableRandom(ns.getLong("seed"));
+        SplittableRandom warmupSeedRandom = seedRandom.split();
+        bench.playAll(GameBench.drawSeeds(warmupSeedRandom, ns.getInt("numWarmupGames")), numThreads);
+
+        final long startNanos = System.nanoTime();
+        List<GameResult> results = bench.playAll(GameBench.drawSeeds(seedRandom, numGames), numThreads);
+        final double elapsedSecs = (System.nanoTime() - startNanos) / 1e9;
+
+        long numPlacements = 0;
+        long totalScore = 0;
+        long checksum = 17;
+        for(GameResult result : results)
+        {
+            numPlacements += result.getNumPlacements();
+            totalScore += result.getScore();
+            checksum = checksum * 31 + result.getScore();
+            checksum = checksum * 31 + result.getNumPlacements();
+        }
+        long[] updateNanos = new long[(int)numPlacements];
+        long[] agentNanos = new long[(int)numPlacements];
+        int offset = 0;
+        for(GameResult result : results)
+        {
+            System.arraycopy(result.getUpdateNanos(), 0, updateNanos, offset, result.getNumPlacements());
+            System.arraycopy(result.getAgentNanos(), 0, agentNanos, offset, result.getNumPlacements());
+            offset += result.getNumPlacements();
+        }
+
+        System.out.println("[INFO] GameBench: agent=" + bench.getAgentName() + " games=" + numGames
+                           + " minos/game=" + bench.getNumMinos() + " threads=" + numThreads
+                           + " seed=" + ns.getLong("seed"));
+        System.out.println(String.format("[INFO] GameBench: %.1f games/sec, %.1f placements/sec (%.2fs)",
+                                         numGames / elapsedSecs, numPlacements / elapsedSecs, elapsedSecs));
+        System.out.println("[INFO] GameBench: move  " + GameBench.formatLatency(updateNanos));
+        System.out.println("[INFO] GameBench: agent " + GameBench.formatLatency(agentNanos));
+        System.out.println(String.format("[INFO] GameBench: placements=%d avg score=%.3f checksum=%016x",
+                                         numPlacements, totalScore / (double)numGames, checksum));
+        System.exit(0);
+    }
+
+}
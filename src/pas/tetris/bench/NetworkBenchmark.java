@@ -0,0 +1,74 @@
+package src.pas.tetris.bench;
+
+
+// SYSTEM IMPORTS
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import src.pas.tetris.agents.TetrisQAgent;
+
+
+/**
+ * Cost of one forward pass of the q-function over batchSize rows of real features: 1 is a single
+ * placement, 32 is about what scoring every placement of one move takes, 128 is a training minibatch.
+ *
+ * See BenchFixtures for how to build and run these (with -prof gc for the allocation rate).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class NetworkBenchmark
+    extends Object
+{
+
+    @Param({"1", "32", "128"})
+    public int batchSize;
+
+    private BenchFixtures fixtures;
+    private Matrix forwardInput;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.fixtures = BenchFixtures.create();
+
+        // the first batchSize recorded moves, wrapping around if there are fewer views than that
+        TetrisQAgent agent = this.fixtures.getAgent();
+        Matrix firstRow = agent.getQFunctionInput(this.fixtures.getViews().get(0), this.fixtures.getActions().get(0));
+        this.forwardInput = Matrix.zeros(this.batchSize, firstRow.getShape().getNumCols());
+        for(int rowIdx = 0; rowIdx < this.batchSize; ++rowIdx)
+        {
+            final int viewIdx = rowIdx % this.fixtures.size();
+            Matrix row = agent.getQFunctionInput(this.fixtures.getViews().get(viewIdx), this.fixtures.getActions().get(viewIdx));
+            for(int col = 0; col < row.getShape().getNumCols(); ++col)
+            {
+                this.forwardInput.set(rowIdx, col, row.get(0, col));
+            }
+        }
+    }
+
+    @Benchmark
+    public Matrix forward() throws Exception
+    {
+        return this.fixtures.getAgent().getQFunction().forward(this.forwardInput);
+    }
+
+}
@@ -0,0 +1,74 @@
+package src.pas.tetris.bench;
+
+
+// SYSTEM IMPORTS
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.nn.LossFunction;
+import edu.bu.tetris.nn.Optimizer;
+import edu.bu.tetris.nn.losses.MeanSquaredError;
+import edu.bu.tetris.nn.optimizers.AdamOptimizer;
+import edu.bu.tetris.training.data.Dataset;
+import src.pas.tetris.agents.TetrisQAgent;
+
+
+/**
+ * Cost of one epoch of TetrisQAgent.trainQFunction (numUpdates = 1) over the seeded dataset of
+ * BenchFixtures, with Main's defaults for -d adam (lr 1e-6, beta1 0.9, beta2 0.999, minibatches of 128).
+ * The parameters keep training from one invocation to the next; at this learning rate that doesn't
+ * change the cost of a step.
+ *
+ * See BenchFixtures for how to build and run these (with -prof gc for the allocation rate).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class TrainingBenchmark
+    extends Object
+{
+
+    private static final double LEARNING_RATE   = 1e-6;
+    private static final double BETA1           = 0.9;
+    private static final double BETA2           = 0.999;
+    private static final long   BATCH_SIZE      = 128;
+
+    private TetrisQAgent agent;
+    private Dataset dataset;
+    private LossFunction lossFunction;
+    private Optimizer optimizer;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        BenchFixtures fixtures = BenchFixtures.create();
+        this.agent = fixtures.getAgent();
+        this.dataset = fixtures.createDataset(BATCH_SIZE);
+        this.lossFunction = new MeanSquaredError();
+        this.optimizer = new AdamOptimizer(this.agent.getQFunction().getParameters(), LEARNING_RATE, BETA1, BETA2);
+    }
+
+    @Benchmark
+    public TetrisQAgent trainQFunction()
+    {
+        this.agent.trainQFunction(this.dataset, this.lossFunction, this.optimizer, 1);
+        return this.agent;
+    }
+
+}
@@ -0,0 +1,98 @@
+package src.pas.tetris.exploration;
+
+
+// SYSTEM IMPORTS
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.game.minos.Mino.MinoType;
+import edu.bu.tetris.game.minos.Mino.Orientation;
+
+
+/**
+ * UCB statistics (reward sum and count) of exploration moves, keyed on the descriptor
+ * (type, orientation, pivot column) of a placement instead of on the placement itself.
+ *
+ * Keying on the whole Mino (which includes the row it lands in) gave every board its own entries, so the
+ * maps grew without bound and almost never had a count above 1. A descriptor only says which piece went
+ * where, so the statistics carry over between boards, and there are only
+ * NUM_MINO_TYPES * NUM_ORIENTATIONS * NUM_COLUMNS of them: the table is a fixed set of primitive arrays
+ * indexed directly by the descriptor, and memory stays the same no matter how many games are played.
+ *
+ * Thread-safe (every method locks the table).
+ */
+public class PlacementStats
+    extends Object
+{
+
+    public static final int MAX_PIVOT_OFFSET    = 2;    // pivots can sit this far outside the board
+    public static final int NUM_COLUMNS         = Board.NUM_COLS + 2 * MAX_PIVOT_OFFSET;
+    public static final int NUM_ORIENTATIONS    = Orientation.values().length;
+    public static final int NUM_MINO_TYPES      = MinoType.values().length;
+    public static final int NUM_DESCRIPTORS     = NUM_MINO_TYPES * NUM_ORIENTATIONS * NUM_COLUMNS;
+
+    private final double[]  rewardSums;
+    private final int[]     counts;
+    private long            totalCount;
+
+    public PlacementStats()
+    {
+        this.rewardSums = new double[NUM_DESCRIPTORS];
+        this.counts = new int[NUM_DESCRIPTORS];
+        this.totalCount = 0;
+    }
+
+    public synchronized long getTotalCount() { return this.totalCount; }
+
+    /** Index of the placement's (type, orientation, pivot column) in [0, NUM_DESCRIPTORS). */
+    public static int getDescriptor(final Mino mino)
+    {
+        final int column = Math.min(NUM_COLUMNS - 1,
+            Math.max(0, mino.getPivotBlockCoordinate().getXCoordinate() + MAX_PIVOT_OFFSET));
+        return (mino.getType().ordinal() * NUM_ORIENTATIONS + mino.getOrientation().ordinal()) * NUM_COLUMNS + column;
+    }
+
+    public synchronized int getCount(final Mino mino) { return this.counts[PlacementStats.getDescriptor(mino)]; }
+    public synchronized double getRewardSum(final Mino mino) { return this.rewardSums[PlacementStats.getDescriptor(mino)]; }
+
+    /**
+     * The candidate with the highest UCB score
+     *
+     *      rewardSum / (count + 1) + c * sqrt(log(totalCount + 1) / (count + 1))
+     *
+     * (the first one on ties), or null if there are none.
+     */
+    public synchronized Mino getBestPlacement(final List<Mino> candidates,
+                                              final double c)
+    {
+        final double logTotal = Math.log(this.totalCount + 1);
+        double bestValue = Double.NEGATIVE_INFINITY;
+        Mino bestPlacement = null;
+        for(Mino candidate : candidates)
+        {
+            final int descriptor = PlacementStats.getDescriptor(candidate);
+            final int count = this.counts[descriptor];
+            final double value = this.rewardSums[descriptor] / (count + 1) + c * Math.sqrt(logTotal / (count + 1));
+            if(value > bestValue)
+            {
+                bestValue = value;
+                bestPlacement = candidate;
+            }
+        }
+        return bestPlacement;
+    }
+
+    /** Records that placement was chosen and earned reward. */
+    public synchronized void update(final Mino placement,
+                                    final double reward)
+    {
+        final int descriptor = PlacementStats.getDescriptor(placement);
+        this.rewardSums[descriptor] += reward;
+        ++this.counts[descriptor];
+        ++this.totalCount;
+    }
+
+}
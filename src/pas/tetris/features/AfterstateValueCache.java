@@ -0,0 +1,175 @@
+package src.pas.tetris.features;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Bounded cache from afterstate hashes (ZobristHash) to the q-value some model gave that afterstate.
+ *
+ * Entries belong to one (owner, version) pair, e.g. a model and the number of optimizer steps it has
+ * taken. Every call names the pair it wants: if it differs from the current one the whole cache is
+ * invalidated in O(1) (the stored entries are stamped with an epoch that just stops matching), so values
+ * computed with old parameters are never returned. put() with a pair that is no longer current is ignored,
+ * so a value computed by a thread that raced with a parameter update can't sneak back in either.
+ *
+ * Storage is a fixed WAYS-way set-associative table in primitive arrays. A set that is full is evicted
+ * with CLOCK (second chance): every hit sets the entry's reference bit, and the set's hand skips (and
+ * clears) referenced entries, so entries that keep getting hit survive and one-off afterstates go first.
+ *
+ * Thread-safe (every method locks the cache).
+ */
+public class AfterstateValueCache
+    extends Object
+{
+
+    public static final int     WAYS    = 4;
+
+    private final int           numSets;    // power of two
+    private final long[]        keys;
+    private final double[]      values;
+    private final int[]         epochs;     // entry i is valid iff epochs[i] == this.epoch
+    private final boolean[]     referenced;
+    private final byte[]        hands;      // CLOCK hand of each set, in [0, WAYS)
+
+    private Object              owner;
+    private long                version;
+    private int                 epoch;
+    private long                numHits;
+    private long                numMisses;
+
+    public AfterstateValueCache(int capacity)
+    {
+        this.numSets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS - 1)) << 1;
+        this.keys = new long[this.numSets * WAYS];
+        this.values = new double[this.numSets * WAYS];
+        this.epochs = new int[this.numSets * WAYS];
+        this.referenced = new boolean[this.numSets * WAYS];
+        this.hands = new byte[this.numSets];
+
+        this.owner = null;
+        this.version = 0;
+        this.epoch = 1;
+        this.numHits = 0;
+        this.numMisses = 0;
+    }
+
+    public final int getCapacity() { return this.numSets * WAYS; }
+    public synchronized long getNumHits() { return this.numHits; }
+    public synchronized long getNumMisses() { return this.numMisses; }
+
+    /** Drops every entry. */
+    public synchronized void invalidate()
+    {
+        ++this.epoch;
+    }
+
+    /** Switches to (owner, version), invalidating everything if that is not the current pair. */
+    private void validate(final Object owner,
+                          final long version)
+    {
+        if(owner != this.owner || version != this.version)
+        {
+            this.owner = owner;
+            this.version = version;
+            this.invalidate();
+        }
+    }
+
+    private int getSetStart(final long key)
+    {
+        return (((int)(key >>> 32) ^ (int)key) & (this.numSets - 1)) * WAYS;
+    }
+
+    private int find(final long key)
+    {
+        final int setStart = this.getSetStart(key);
+        for(int slot = setStart; slot < setStart + WAYS; ++slot)
+        {
+            if(this.epochs[slot] == this.epoch && this.keys[slot] == key)
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up keys[0, numKeys) for (owner, version). Hits are written to values[i]; the indices i of the
+     * misses are written to missIdxs (in order) and their number is returned.
+     */
+    public synchronized int lookup(final Object owner,
+                                   final long version,
+                                   final long[] keys,
+                                   final int numKeys,
+                                   final double[] values,
+                                   final int[] missIdxs)
+    {
+        this.validate(owner, version);
+
+        int numMisses = 0;
+        for(int keyIdx = 0; keyIdx < numKeys; ++keyIdx)
+        {
+            final int slot = this.find(keys[keyIdx]);
+            if(slot >= 0)
+            {
+                values[keyIdx] = this.values[slot];
+                this.referenced[slot] = true;
+            } else
+            {
+                missIdxs[numMisses++] = keyIdx;
+            }
+        }
+        this.numHits += numKeys - numMisses;
+        this.numMisses += numMisses;
+        return numMisses;
+    }
+
+    /** Stores value for key, unless (owner, version) is no longer the current pair. */
+    public synchronized void put(final Object owner,
+                                 final long version,
+                                 final long key,
+                                 final double value)
+    {
+        if(owner != this.owner || version != this.version)
+        {
+            return;
+        }
+
+        int slot = this.find(key);
+        if(slot < 0)
+        {
+            slot = this.evict(this.getSetStart(key));
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.epochs[slot] = this.epoch;
+        this.referenced[slot] = false;
+    }
+
+    /** A slot of the set to overwrite: an invalid one if there is one, otherwise CLOCK's choice. */
+    private int evict(final int setStart)
+    {
+        for(int slot = setStart; slot < setStart + WAYS; ++slot)
+        {
+            if(this.epochs[slot] != this.epoch)
+            {
+                return slot;
+            }
+        }
+
+        final int setIdx = setStart / WAYS;
+        int hand = this.hands[setIdx];
+        while(this.referenced[setStart + hand])
+        {
+            this.referenced[setStart + hand] = false;
+            hand = (hand + 1) % WAYS;
+        }
+        this.hands[setIdx] = (byte)((hand + 1) % WAYS);
+        return setStart + hand;
+    }
+
+}
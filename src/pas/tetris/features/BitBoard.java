@@ -0,0 +1,141 @@
+package src.pas.tetris.features;
+
+
+// SYSTEM IMPORTS
+import java.util.Arrays;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Block;
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.linalg.Matrix;
+
+
+/**
+ * Bit-packed view of a tetris board. Each row is one int (bit c set if column c is occupied) and each
+ * column is one int (bit r set if row r is occupied). Rows are indexed like Board: row 0 is the top of
+ * the board and row NUM_ROWS-1 is the floor.
+ *
+ * Loading a board is the only step that touches every cell. Everything the reward and features need
+ * (full lines, heights, holes, blockades and the edge contact counts) is then computed from the row and
+ * column words by BoardStats, with shifts, masks and popcounts over at most NUM_ROWS + NUM_COLS words.
+ *
+ * A BitBoard is mutable and meant to be reused, so don't share one instance across threads.
+ */
+public class BitBoard
+    extends Object
+{
+
+    public static final int FULL_ROW_MASK   = (1 << Board.NUM_COLS) - 1;
+    public static final int FULL_COL_MASK   = (1 << Board.NUM_ROWS) - 1;
+
+    private final int[] rows;
+    private final int[] cols;
+
+    public BitBoard()
+    {
+        this.rows = new int[Board.NUM_ROWS];
+        this.cols = new int[Board.NUM_COLS];
+    }
+
+    public final int getRow(int row) { return this.rows[row]; }
+    public final int getCol(int col) { return this.cols[col]; }
+
+    public boolean isOccupied(int col, int row) { return ((this.rows[row] >>> col) & 1) != 0; }
+
+    public BitBoard clear()
+    {
+        Arrays.fill(this.rows, 0);
+        Arrays.fill(this.cols, 0);
+        return this;
+    }
+
+    /** Sets a whole row at once. Column words are kept in sync. */
+    public BitBoard setRow(int row, int rowMask)
+    {
+        int changed = this.rows[row] ^ rowMask;
+        this.rows[row] = rowMask;
+        while(changed != 0)
+        {
+            int col = Integer.numberOfTrailingZeros(changed);
+            this.cols[col] ^= 1 << row;
+            changed &= changed - 1;
+        }
+        return this;
+    }
+
+    public BitBoard set(int col, int row)
+    {
+        this.rows[row] |= 1 << col;
+        this.cols[col] |= 1 << row;
+        return this;
+    }
+
+    public BitBoard load(final Board board)
+    {
+        return this.load(board, null);
+    }
+
+    /** Loads the board with the mino (if not null) already placed on it. */
+    public BitBoard load(final Board board,
+                         final Mino mino)
+    {
+        final Block[][] grid = board.getBoard();
+        Arrays.fill(this.cols, 0);
+        for(int row = 0; row < Board.NUM_ROWS; ++row)
+        {
+            final Block[] cells = grid[row];
+            int rowMask = 0;
+            for(int col = 0; col < Board.NUM_COLS; ++col)
+            {
+                if(cells[col] != null)
+                {
+                    rowMask |= 1 << col;
+                }
+            }
+            this.rows[row] = rowMask;
+            this.addToCols(row, rowMask);
+        }
+
+        if(mino != null)
+        {
+            for(Block block : mino.getBlocks())
+            {
+                this.set(block.getCoordinate().getXCoordinate(), block.getCoordinate().getYCoordinate());
+            }
+        }
+        return this;
+    }
+
+    /** Loads a (NUM_ROWS x NUM_COLS) grayscale image: any non-zero pixel counts as occupied. */
+    public BitBoard load(final Matrix grayscaleImage)
+    {
+        Arrays.fill(this.cols, 0);
+        for(int row = 0; row < Board.NUM_ROWS; ++row)
+        {
+            int rowMask = 0;
+            for(int col = 0; col < Board.NUM_COLS; ++col)
+            {
+                if(grayscaleImage.get(row, col) != 0.0)
+                {
+                    rowMask |= 1 << col;
+                }
+            }
+            this.rows[row] = rowMask;
+            this.addToCols(row, rowMask);
+        }
+        return this;
+    }
+
+    private void addToCols(int row, int rowMask)
+    {
+        while(rowMask != 0)
+        {
+            int col = Integer.numberOfTrailingZeros(rowMask);
+            this.cols[col] |= 1 << row;
+            rowMask &= rowMask - 1;
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package src.pas.tetris.features;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Board;
+
+
+/**
+ * Every aggregate board statistic the reward and the q-function features use, collected from a
+ * BitBoard in one pass over its column words and one pass over its row words (instead of one full
+ * board scan per statistic).
+ *
+ *      sumOfHeights        sum of the column heights (distance from the floor to the top block)
+ *      sumOfLowestBlocks   sum over the columns of (row index of the lowest block + 1), 0 if empty.
+ *                          This is what the grayscale-image reward has always called "height".
+ *      holes               empty cells with a block somewhere above them
+ *      blockades           filled cells with an empty cell somewhere above them
+ *      clears              number of full lines
+ *      edgeTouchBlock      filled cells touching another block to their left, right or below
+ *      edgeTouchWall       filled cells in the left-most or right-most column
+ *      edgeTouchFloor      filled cells on the bottom row
+ *
+ * The column heights themselves are kept too since the feature vector has one entry per column.
+ */
+public class BoardStats
+    extends Object
+{
+
+    private final int[] columnHeights;
+    private int         sumOfHeights;
+    private int         sumOfLowestBlocks;
+    private int         holes;
+    private int         blockades;
+    private int         clears;
+    private int         edgeTouchBlock;
+    private int         edgeTouchWall;
+    private int         edgeTouchFloor;
+
+    public BoardStats()
+    {
+        this.columnHeights = new int[Board.NUM_COLS];
+    }
+
+    public final int getColumnHeight(int col) { return this.columnHeights[col]; }
+    public final int getSumOfHeights() { return this.sumOfHeights; }
+    public final int getSumOfLowestBlocks() { return this.sumOfLowestBlocks; }
+    public final int getHoles() { return this.holes; }
+    public final int getBlockades() { return this.blockades; }
+    public final int getClears() { return this.clears; }
+    public final int getEdgeTouchBlock() { return this.edgeTouchBlock; }
+    public final int getEdgeTouchWall() { return this.edgeTouchWall; }
+    public final int getEdgeTouchFloor() { return this.edgeTouchFloor; }
+
+    /** Recomputes every statistic for the given board. Returns this so calls can be chained. */
+    public BoardStats compute(final BitBoard bitBoard)
+    {
+        int sumOfHeights = 0;
+        int sumOfLowestBlocks = 0;
+        int holes = 0;
+        int blockades = 0;
+
+        for(int col = 0; col < Board.NUM_COLS; ++col)
+        {
+            final int colMask = bitBoard.getCol(col);
+            final int height = colMask == 0 ? 0 : Board.NUM_ROWS - Integer.numberOfTrailingZeros(colMask);
+            this.columnHeights[col] = height;
+            sumOfHeights += height;
+            sumOfLowestBlocks += 32 - Integer.numberOfLeadingZeros(colMask);
+
+            if(colMask != 0)
+            {
+                // rows strictly below the top block / the first empty cell (row 0 is the top)
+                final int belowTop = BitBoard.FULL_COL_MASK & ~((Integer.lowestOneBit(colMask) << 1) - 1);
+                holes += Integer.bitCount(belowTop & ~colMask);
+
+                final int emptyMask = ~colMask & BitBoard.FULL_COL_MASK;
+                if(emptyMask != 0)
+                {
+                    final int belowFirstEmpty = BitBoard.FULL_COL_MASK & ~((Integer.lowestOneBit(emptyMask) << 1) - 1);
+                    blockades += Integer.bitCount(belowFirstEmpty & colMask);
+                }
+            }
+        }
+
+        int clears = 0;
+        int edgeTouchBlock = 0;
+        int below = 0;
+        for(int row = Board.NUM_ROWS - 1; row >= 0; --row)
+        {
+            final int rowMask = bitBoard.getRow(row);
+            if(rowMask == BitBoard.FULL_ROW_MASK)
+            {
+                ++clears;
+            }
+            edgeTouchBlock += Integer.bitCount(rowMask & ((rowMask << 1) | (rowMask >>> 1) | below));
+            below = rowMask;
+        }
+
+        this.sumOfHeights = sumOfHeights;
+        this.sumOfLowestBlocks = sumOfLowestBlocks;
+        this.holes = holes;
+        this.blockades = blockades;
+        this.clears = clears;
+        this.edgeTouchBlock = edgeTouchBlock;
+        this.edgeTouchWall = Integer.bitCount(bitBoard.getCol(0)) + Integer.bitCount(bitBoard.getCol(Board.NUM_COLS - 1));
+        this.edgeTouchFloor = Integer.bitCount(bitBoard.getRow(Board.NUM_ROWS - 1));
+        return this;
+    }
+
+}
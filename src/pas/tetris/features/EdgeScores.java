@@ -0,0 +1,87 @@
+package src.pas.tetris.features;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * The three edge contact counts of a board together with the score the reward gives them:
+ * hugging the wall (2 per cell), hugging the floor (2 per cell) and touching an existing block to the
+ * left, right or below (3 per cell).
+ *
+ * Instances are immutable, so they can be handed between threads and kept around freely. This replaces
+ * the edgeTouch* fields TetrisQAgent used to return these counts through.
+ */
+public final class EdgeScores
+    extends Object
+{
+
+    public static final double WALL_WEIGHT  = 2.0;
+    public static final double FLOOR_WEIGHT = 2.0;
+    public static final double BLOCK_WEIGHT = 3.0;
+
+    private final int edgeTouchBlock;
+    private final int edgeTouchWall;
+    private final int edgeTouchFloor;
+
+    public EdgeScores(int edgeTouchBlock,
+                      int edgeTouchWall,
+                      int edgeTouchFloor)
+    {
+        this.edgeTouchBlock = edgeTouchBlock;
+        this.edgeTouchWall = edgeTouchWall;
+        this.edgeTouchFloor = edgeTouchFloor;
+    }
+
+    public static EdgeScores of(final BoardStats stats)
+    {
+        return new EdgeScores(stats.getEdgeTouchBlock(), stats.getEdgeTouchWall(), stats.getEdgeTouchFloor());
+    }
+
+    public final int getEdgeTouchBlock() { return this.edgeTouchBlock; }
+    public final int getEdgeTouchWall() { return this.edgeTouchWall; }
+    public final int getEdgeTouchFloor() { return this.edgeTouchFloor; }
+
+    /** 1 if any cell is on the floor, 0 otherwise. */
+    public final int getTouchesFloor() { return this.edgeTouchFloor > 0 ? 1 : 0; }
+
+    public double getScore()
+    {
+        return (WALL_WEIGHT * this.getEdgeTouchWall()) + (FLOOR_WEIGHT * this.getEdgeTouchFloor())
+            + (BLOCK_WEIGHT * this.getEdgeTouchBlock());
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if(this == other)
+        {
+            return true;
+        }
+        if(!(other instanceof EdgeScores))
+        {
+            return false;
+        }
+        EdgeScores that = (EdgeScores)other;
+        return this.getEdgeTouchBlock() == that.getEdgeTouchBlock()
+            && this.getEdgeTouchWall() == that.getEdgeTouchWall()
+            && this.getEdgeTouchFloor() == that.getEdgeTouchFloor();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (31 * this.getEdgeTouchBlock() + this.getEdgeTouchWall()) * 31 + this.getEdgeTouchFloor();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "EdgeScores(block=" + this.getEdgeTouchBlock() + ", wall=" + this.getEdgeTouchWall()
+            + ", floor=" + this.getEdgeTouchFloor() + ")";
+    }
+
+}
@@ -0,0 +1,318 @@
+package src.pas.tetris.features;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Block;
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.utils.Coordinate;
+import src.pas.tetris.search.PackedMino;
+
+
+/**
+ * Builds the q-function input for a (board, potential mino placement) pair without going through
+ * GameView.getGrayscaleImage(). Everything is written straight into a primitive row buffer, and all of
+ * the hand-made features (column heights, clears, holes, blockades and the three edge contact counts)
+ * come from one BoardStats pass over the packed afterstate.
+ *
+ * All candidates of a move are placed on the same board, so the board itself (the "background") is
+ * rendered once, as pixels and as BitBoard rows, and each candidate only patches its four blocks in (and
+ * the previous candidate's back out): O(4) per candidate for the image instead of O(rows x cols).
+ *
+ * The features describe the board *after* the mino has been placed (the "afterstate"), which is what
+ * the network is actually asked to score.
+ *
+ * Row layout (must match the input size used in TetrisQAgent.initQFunction):
+ *      [0, NUM_PIXELS)                 grayscale image, row-major (0.0 empty, 0.5 background, 1.0 mino)
+ *      [HEIGHTS_OFFSET, +NUM_COLS)     height of each column
+ *      CLEARS_IDX                      number of full lines
+ *      HOLES_IDX                       empty cells with a block somewhere above them
+ *      BLOCKADES_IDX                   filled cells with an empty cell somewhere above them
+ *      EDGE_TOUCH_BLOCK_IDX            filled cells touching another block (left, right or below)
+ *      EDGE_TOUCH_WALL_IDX             filled cells in the left-most or right-most column
+ *      EDGE_TOUCH_FLOOR_IDX            filled cells on the bottom row
+ *
+ * A FeatureExtractor owns one reusable buffer, so a single instance should not be shared across threads.
+ */
+public class FeatureExtractor
+    extends Object
+{
+
+    public static final int NUM_PIXELS              = Board.NUM_ROWS * Board.NUM_COLS;
+    public static final int HEIGHTS_OFFSET          = NUM_PIXELS;
+    public static final int CLEARS_IDX              = HEIGHTS_OFFSET + Board.NUM_COLS;
+    public static final int HOLES_IDX               = CLEARS_IDX + 1;
+    public static final int BLOCKADES_IDX           = HOLES_IDX + 1;
+    public static final int EDGE_TOUCH_BLOCK_IDX    = BLOCKADES_IDX + 1;
+    public static final int EDGE_TOUCH_WALL_IDX     = EDGE_TOUCH_BLOCK_IDX + 1;
+    public static final int EDGE_TOUCH_FLOOR_IDX    = EDGE_TOUCH_WALL_IDX + 1;
+    public static final int NUM_FEATURES            = EDGE_TOUCH_FLOOR_IDX + 1;
+
+    public static final double UNOCCUPIED_VALUE     = 0.0;
+    public static final double BACKGROUND_VALUE     = 0.5;
+    public static final double MINO_VALUE           = 1.0;
+
+    private static final int   MAX_MINO_BLOCKS      = 4;
+
+    private final double[]      buffer;
+    private final BitBoard      bitBoard;       // packed afterstate of the last extract() call
+    private final BoardStats    boardStats;     // statistics of that afterstate
+
+    // the background (the board without the mino), rendered once per board
+    private Board               background;
+    private final double[]      backgroundPixels;
+    private final int[]         backgroundRows;
+
+    // cells of buffer (and rows of bitBoard) the last extract() patched the mino into
+    private Board               bufferBackground;   // background buffer currently holds, null if none
+    private final int[]         patchedCells;
+    private int                 numPatchedCells;
+    private final int[]         patchedRows;
+    private int                 numPatchedRows;
+
+    public FeatureExtractor()
+    {
+        this.buffer = new double[NUM_FEATURES];
+        this.bitBoard = new BitBoard();
+        this.boardStats = new BoardStats();
+
+        this.background = null;
+        this.backgroundPixels = new double[NUM_PIXELS];
+        this.backgroundRows = new int[Board.NUM_ROWS];
+
+        this.bufferBackground = null;
+        this.patchedCells = new int[MAX_MINO_BLOCKS];
+        this.numPatchedCells = 0;
+        this.patchedRows = new int[MAX_MINO_BLOCKS];
+        this.numPatchedRows = 0;
+    }
+
+    public final double[] getBuffer() { return this.buffer; }
+    public final BitBoard getBitBoard() { return this.bitBoard; }
+    public final BoardStats getBoardStats() { return this.boardStats; }
+
+    /**
+     * Renders the pixels and row masks of board, unless it is already the background. Every candidate of
+     * a move is placed on the same Board, so this touches every cell once per move instead of once per
+     * candidate. Boards are recognized by identity: a Board must not be modified while it is the background
+     * (GameView hands out its own copy, which never is).
+     */
+    public FeatureExtractor setBackground(final Board board)
+    {
+        if(board == this.background)
+        {
+            return this;
+        }
+
+        final Block[][] grid = board.getBoard();
+        final BitBoard bitBoard = this.getBitBoard();
+        int pixelIdx = 0;
+        for(int row = 0; row < Board.NUM_ROWS; ++row)
+        {
+            final Block[] cells = grid[row];
+            int rowMask = 0;
+            for(int col = 0; col < Board.NUM_COLS; ++col)
+            {
+                if(cells[col] != null)
+                {
+                    this.backgroundPixels[pixelIdx++] = BACKGROUND_VALUE;
+                    rowMask |= 1 << col;
+                } else
+                {
+                    this.backgroundPixels[pixelIdx++] = UNOCCUPIED_VALUE;
+                }
+            }
+            this.backgroundRows[row] = rowMask;
+            bitBoard.setRow(row, rowMask);
+        }
+
+        this.background = board;
+        this.bufferBackground = null;
+        this.numPatchedRows = 0;
+        return this;
+    }
+
+    /** Takes the last mino's rows back out of getBitBoard(), leaving the background of board. */
+    private BitBoard unpatchRows(final Board board)
+    {
+        this.setBackground(board);
+
+        final BitBoard bitBoard = this.getBitBoard();
+        for(int rowIdx = 0; rowIdx < this.numPatchedRows; ++rowIdx)
+        {
+            final int row = this.patchedRows[rowIdx];
+            bitBoard.setRow(row, this.backgroundRows[row]);
+        }
+        this.numPatchedRows = 0;
+        return bitBoard;
+    }
+
+    /** Patches one mino block into getBitBoard(), remembering its row so unpatchRows() can restore it. */
+    private void patchRow(final BitBoard bitBoard,
+                          final int col,
+                          final int row)
+    {
+        if(bitBoard.getRow(row) == this.backgroundRows[row])
+        {
+            this.patchedRows[this.numPatchedRows++] = row;
+        }
+        bitBoard.set(col, row);
+    }
+
+    /**
+     * Packs the afterstate of placing potentialAction (may be null) on board into getBitBoard(), by
+     * patching the mino's rows into the background: O(4) rows once the background is set.
+     */
+    public BitBoard loadAfterstate(final Board board,
+                                   final Mino potentialAction)
+    {
+        final BitBoard bitBoard = this.unpatchRows(board);
+        if(potentialAction != null)
+        {
+            for(Block block : potentialAction.getBlocks())
+            {
+                final Coordinate coord = block.getCoordinate();
+                this.patchRow(bitBoard, coord.getXCoordinate(), coord.getYCoordinate());
+            }
+        }
+        return bitBoard;
+    }
+
+    /** loadAfterstate for a PackedMino placement, read straight from its block offsets. */
+    public BitBoard loadAfterstate(final Board board,
+                                   final int potentialAction)
+    {
+        final BitBoard bitBoard = this.unpatchRows(board);
+        final int shape = PackedMino.getShape(potentialAction);
+        final int pivotX = PackedMino.getPivotX(potentialAction);
+        final int pivotY = PackedMino.getPivotY(potentialAction);
+        for(int blockIdx = 0; blockIdx < PackedMino.NUM_BLOCKS; ++blockIdx)
+        {
+            this.patchRow(bitBoard,
+                          pivotX + PackedMino.getBlockDx(shape, blockIdx), pivotY + PackedMino.getBlockDy(shape, blockIdx));
+        }
+        return bitBoard;
+    }
+
+    /**
+     * Fills (and returns) this extractor's reusable buffer. The returned array is overwritten by the
+     * next call, so copy it if it needs to outlive that.
+     */
+    public double[] extract(final Board board,
+                            final Mino potentialAction)
+    {
+        this.extract(board, potentialAction, this.getBuffer(), 0);
+        return this.getBuffer();
+    }
+
+    /**
+     * Copies the background image into dst (in this extractor's own buffer, just patches the previous
+     * candidate's blocks back out) and returns whether dst is the own buffer.
+     */
+    private boolean resetImage(final Board board,
+                               final double[] dst,
+                               final int offset)
+    {
+        final boolean ownBuffer = dst == this.buffer && offset == 0;
+        if(ownBuffer && this.bufferBackground == board)
+        {
+            for(int cellIdx = 0; cellIdx < this.numPatchedCells; ++cellIdx)
+            {
+                final int pixelIdx = this.patchedCells[cellIdx];
+                dst[pixelIdx] = this.backgroundPixels[pixelIdx];
+            }
+        } else
+        {
+            System.arraycopy(this.backgroundPixels, 0, dst, offset, NUM_PIXELS);
+            this.bufferBackground = ownBuffer ? board : this.bufferBackground;
+        }
+        this.numPatchedCells = ownBuffer ? 0 : this.numPatchedCells;
+        return ownBuffer;
+    }
+
+    /** Patches one mino block into the image in dst. */
+    private void patchPixel(final double[] dst,
+                            final int offset,
+                            final boolean ownBuffer,
+                            final int col,
+                            final int row)
+    {
+        final int pixelIdx = row * Board.NUM_COLS + col;
+        dst[offset + pixelIdx] = MINO_VALUE;
+        if(ownBuffer)
+        {
+            this.patchedCells[this.numPatchedCells++] = pixelIdx;
+        }
+    }
+
+    /**
+     * Writes NUM_FEATURES values into dst starting at offset. This is the method to use when stacking
+     * several candidates into one contiguous buffer.
+     *
+     * The image is the background with the mino's blocks patched in. In this extractor's own buffer the
+     * previous candidate's blocks are patched back out (O(4) per candidate); any other dst gets a copy of
+     * the background first.
+     */
+    public void extract(final Board board,
+                        final Mino potentialAction,
+                        final double[] dst,
+                        final int offset)
+    {
+        final BitBoard bitBoard = this.loadAfterstate(board, potentialAction);
+        final boolean ownBuffer = this.resetImage(board, dst, offset);
+        if(potentialAction != null)
+        {
+            for(Block block : potentialAction.getBlocks())
+            {
+                final Coordinate coord = block.getCoordinate();
+                this.patchPixel(dst, offset, ownBuffer, coord.getXCoordinate(), coord.getYCoordinate());
+            }
+        }
+        this.writeStats(bitBoard, dst, offset);
+    }
+
+    /**
+     * extract for a PackedMino placement (e.g. one PlacementGenerator found), so scoring a placement
+     * never needs a Mino.
+     */
+    public void extract(final Board board,
+                        final int potentialAction,
+                        final double[] dst,
+                        final int offset)
+    {
+        final BitBoard bitBoard = this.loadAfterstate(board, potentialAction);
+        final boolean ownBuffer = this.resetImage(board, dst, offset);
+        final int shape = PackedMino.getShape(potentialAction);
+        final int pivotX = PackedMino.getPivotX(potentialAction);
+        final int pivotY = PackedMino.getPivotY(potentialAction);
+        for(int blockIdx = 0; blockIdx < PackedMino.NUM_BLOCKS; ++blockIdx)
+        {
+            this.patchPixel(dst, offset, ownBuffer,
+                            pivotX + PackedMino.getBlockDx(shape, blockIdx), pivotY + PackedMino.getBlockDy(shape, blockIdx));
+        }
+        this.writeStats(bitBoard, dst, offset);
+    }
+
+    /** Writes the hand-made features of the afterstate in bitBoard into dst. */
+    private void writeStats(final BitBoard bitBoard,
+                            final double[] dst,
+                            final int offset)
+    {
+        // everything else comes out of one pass over the packed afterstate
+        final BoardStats stats = this.getBoardStats().compute(bitBoard);
+        for(int col = 0; col < Board.NUM_COLS; ++col)
+        {
+            dst[offset + HEIGHTS_OFFSET + col] = stats.getColumnHeight(col);
+        }
+        dst[offset + CLEARS_IDX] = stats.getClears();
+        dst[offset + HOLES_IDX] = stats.getHoles();
+        dst[offset + BLOCKADES_IDX] = stats.getBlockades();
+        dst[offset + EDGE_TOUCH_BLOCK_IDX] = stats.getEdgeTouchBlock();
+        dst[offset + EDGE_TOUCH_WALL_IDX] = stats.getEdgeTouchWall();
+        dst[offset + EDGE_TOUCH_FLOOR_IDX] = stats.getEdgeTouchFloor();
+    }
+
+}
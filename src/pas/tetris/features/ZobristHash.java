@@ -0,0 +1,97 @@
+package src.pas.tetris.features;
+
+
+// SYSTEM IMPORTS
+import java.util.SplittableRandom;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Block;
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.utils.Coordinate;
+import src.pas.tetris.search.PackedMino;
+
+
+/**
+ * Zobrist hashing of afterstates. Every cell gets one random 64-bit key for "background block here" and
+ * another for "mino block here", and the hash of a (board, placement) pair is the xor of the keys of its
+ * occupied cells. Those two things are exactly what FeatureExtractor reads, so equal hashes mean equal
+ * q-function inputs (up to a 2^-64-ish collision chance).
+ *
+ * Because xor is its own inverse, the board is hashed once per move and each candidate only adds its four
+ * blocks: hash(board, mino) = hashBoard(board) ^ hashMino(mino).
+ */
+public class ZobristHash
+    extends Object
+{
+
+    public static final long SEED = 0x5EED7E7215L;
+
+    private static final long[] BACKGROUND_KEYS = new long[FeatureExtractor.NUM_PIXELS];
+    private static final long[] MINO_KEYS = new long[FeatureExtractor.NUM_PIXELS];
+    static
+    {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for(int cellIdx = 0; cellIdx < FeatureExtractor.NUM_PIXELS; ++cellIdx)
+        {
+            BACKGROUND_KEYS[cellIdx] = random.nextLong();
+            MINO_KEYS[cellIdx] = random.nextLong();
+        }
+    }
+
+    private ZobristHash() {}
+
+    /** Hash of the blocks already on the board. */
+    public static long hashBoard(final Board board)
+    {
+        final Block[][] grid = board.getBoard();
+        long hash = 0L;
+        for(int row = 0; row < Board.NUM_ROWS; ++row)
+        {
+            final Block[] cells = grid[row];
+            for(int col = 0; col < Board.NUM_COLS; ++col)
+            {
+                if(cells[col] != null)
+                {
+                    hash ^= BACKGROUND_KEYS[row * Board.NUM_COLS + col];
+                }
+            }
+        }
+        return hash;
+    }
+
+    /** Hash of the cells a placement covers, to be xor'd with hashBoard of the board it is placed on. */
+    public static long hashMino(final Mino mino)
+    {
+        long hash = 0L;
+        for(Block block : mino.getBlocks())
+        {
+            final Coordinate coord = block.getCoordinate();
+            hash ^= MINO_KEYS[coord.getYCoordinate() * Board.NUM_COLS + coord.getXCoordinate()];
+        }
+        return hash;
+    }
+
+    /** hashMino for a PackedMino placement, read straight from its block offsets. */
+    public static long hashMino(final int mino)
+    {
+        final int shape = PackedMino.getShape(mino);
+        final int pivotX = PackedMino.getPivotX(mino);
+        final int pivotY = PackedMino.getPivotY(mino);
+        long hash = 0L;
+        for(int blockIdx = 0; blockIdx < PackedMino.NUM_BLOCKS; ++blockIdx)
+        {
+            hash ^= MINO_KEYS[(pivotY + PackedMino.getBlockDy(shape, blockIdx)) * Board.NUM_COLS
+                              + pivotX + PackedMino.getBlockDx(shape, blockIdx)];
+        }
+        return hash;
+    }
+
+    public static long hash(final Board board,
+                            final Mino mino)
+    {
+        return ZobristHash.hashBoard(board) ^ ZobristHash.hashMino(mino);
+    }
+
+}
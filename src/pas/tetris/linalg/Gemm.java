@@ -0,0 +1,399 @@
+package src.pas.tetris.linalg;
+
+
+// SYSTEM IMPORTS
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+
+
+/**
+ * General matrix multiply C (+)= op(A) * op(B) over flat row-major double[]s, where op(X) is X or X^T.
+ * Matrix.matmul is a plain triple loop that walks B down its columns and needs an explicit transpose()
+ * copy for the X^T * dY and dY * W^T products of Dense.backwards. Here each of the three layouts we need
+ * gets its own loop order, so the innermost loop always runs along rows of memory:
+ *
+ *      NN  C[i][:] += A[i][p] * B[p][:]        (forward: X * W)
+ *      TN  C[i][:] += A[p][i] * B[p][:]        (weight gradient: X^T * dY)
+ *      NT  C[i][j] += A[i][:] . B[j][:]        (input gradient: dY * W^T)
+ *
+ * The p (and for NT, j) loops are tiled so the rows of B being reused stay in cache while a tile of C
+ * rows is updated. Products with more than PARALLEL_THRESHOLD multiply-adds are split into tiles of C
+ * rows that run on the common ForkJoinPool. Every tile owns its rows of C, so no synchronization is
+ * needed and the result does not depend on the number of threads. A product requested from inside a
+ * fork-join task (e.g. a BeamSearch expansion) runs serially instead: joining the tiles could make that
+ * thread run another task of its pool in the middle of the caller's layer, on top of the per-thread
+ * scratch arrays the caller is still using.
+ *
+ * Every kernel also has a float32 version (Precision.FLOAT32): half the bytes per operand, and twice as
+ * many SIMD lanes. The innermost loops themselves (axpy and dot) come from Kernels.get(), which uses
+ * the Vector API when it is available.
+ */
+public class Gemm
+    extends Object
+{
+
+    public static final int     TILE_ROWS               = 32;       // rows of C per fork-join leaf
+    public static final int     TILE_INNER              = 128;      // rows of B kept hot per pass
+    public static final long    PARALLEL_THRESHOLD      = 1L << 18; // multiply-adds
+
+    private Gemm() {}
+
+    /**
+     * c[m x n] = op(a) * op(b), or c += op(a) * op(b) if accumulate. op(a) is m x k and op(b) is k x n,
+     * so a is stored as m x k (k x m if transA) and b as k x n (n x k if transB).
+     */
+    public static void gemm(final boolean transA,
+                            final boolean transB,
+                            final int m,
+                            final int n,
+                            final int k,
+                            final double[] a,
+                            final double[] b,
+                            final double[] c,
+                            final boolean accumulate)
+    {
+        if(transA && transB)
+        {
+            System.err.println("[ERROR] Gemm.gemm: A^T * B^T is not supported");
+            System.exit(-1);
+        }
+
+        Gemm.forEachRowTile(m, (long)m * n * k,
+                            (rowStart, rowEnd) -> Gemm.gemmRows(transA, transB, m, n, k, a, b, c, accumulate, rowStart, rowEnd));
+    }
+
+    /** Same as the double version, with float32 operands and float32 accumulation. */
+    public static void gemm(final boolean transA,
+                            final boolean transB,
+                            final int m,
+                            final int n,
+                            final int k,
+                            final float[] a,
+                            final float[] b,
+                            final float[] c,
+                            final boolean accumulate)
+    {
+        if(transA && transB)
+        {
+            System.err.println("[ERROR] Gemm.gemm: A^T * B^T is not supported");
+            System.exit(-1);
+        }
+
+        Gemm.forEachRowTile(m, (long)m * n * k,
+                            (rowStart, rowEnd) -> Gemm.gemmRows(transA, transB, m, n, k, a, b, c, accumulate, rowStart, rowEnd));
+    }
+
+    /** Computes rows [rowStart, rowEnd) of some output. */
+    @FunctionalInterface
+    private static interface RowKernel
+    {
+        public void compute(int rowStart, int rowEnd);
+    }
+
+    /** Runs kernel over [0, numRows), forked into tiles of rows if the product is big enough. */
+    private static void forEachRowTile(final int numRows,
+                                       final long numMultiplyAdds,
+                                       final RowKernel kernel)
+    {
+        if(numMultiplyAdds < PARALLEL_THRESHOLD || numRows <= TILE_ROWS || ForkJoinPool.getCommonPoolParallelism() <= 1
+           || ForkJoinTask.inForkJoinPool())
+        {
+            kernel.compute(0, numRows);
+        } else
+        {
+            ForkJoinPool.commonPool().invoke(new RowTiles(kernel, 0, numRows));
+        }
+    }
+
+    /** Computes rows [rowStart, rowEnd) of c. */
+    private static void gemmRows(final boolean transA,
+                                 final boolean transB,
+                                 final int m,
+                                 final int n,
+                                 final int k,
+                                 final double[] a,
+                                 final double[] b,
+                                 final double[] c,
+                                 final boolean accumulate,
+                                 final int rowStart,
+                                 final int rowEnd)
+    {
+        if(!accumulate)
+        {
+            Arrays.fill(c, rowStart * n, rowEnd * n, 0.0);
+        }
+
+        if(transB)
+        {
+            Gemm.gemmRowsNT(n, k, a, b, c, rowStart, rowEnd);
+        } else
+        {
+            Gemm.gemmRowsNN(transA, m, n, k, a, b, c, rowStart, rowEnd);
+        }
+    }
+
+    private static void gemmRowsNN(final boolean transA,
+                                   final int m,
+                                   final int n,
+                                   final int k,
+                                   final double[] a,
+                                   final double[] b,
+                                   final double[] c,
+                                   final int rowStart,
+                                   final int rowEnd)
+    {
+        final Kernels kernels = Kernels.get();
+        for(int pStart = 0; pStart < k; pStart += TILE_INNER)
+        {
+            final int pEnd = Math.min(k, pStart + TILE_INNER);
+            for(int i = rowStart; i < rowEnd; ++i)
+            {
+                final int cOffset = i * n;
+                for(int p = pStart; p < pEnd; ++p)
+                {
+                    final double aip = transA ? a[p * m + i] : a[i * k + p];
+                    if(aip == 0.0)
+                    {
+                        continue; // relu activations and board pixels are mostly zero
+                    }
+                    kernels.axpy(aip, b, p * n, c, cOffset, n);
+                }
+            }
+        }
+    }
+
+    private static void gemmRowsNT(final int n,
+                                   final int k,
+                                   final double[] a,
+                                   final double[] b,
+                                   final double[] c,
+                                   final int rowStart,
+                                   final int rowEnd)
+    {
+        final Kernels kernels = Kernels.get();
+        for(int jStart = 0; jStart < n; jStart += TILE_INNER)
+        {
+            final int jEnd = Math.min(n, jStart + TILE_INNER);
+            for(int i = rowStart; i < rowEnd; ++i)
+            {
+                final int aOffset = i * k;
+                final int cOffset = i * n;
+                for(int j = jStart; j < jEnd; ++j)
+                {
+                    c[cOffset + j] += kernels.dot(a, aOffset, b, j * k, k);
+                }
+            }
+        }
+    }
+
+    private static void gemmRows(final boolean transA,
+                                 final boolean transB,
+                                 final int m,
+                                 final int n,
+                                 final int k,
+                                 final float[] a,
+                                 final float[] b,
+                                 final float[] c,
+                                 final boolean accumulate,
+                                 final int rowStart,
+                                 final int rowEnd)
+    {
+        if(!accumulate)
+        {
+            Arrays.fill(c, rowStart * n, rowEnd * n, 0.0f);
+        }
+
+        if(transB)
+        {
+            Gemm.gemmRowsNT(n, k, a, b, c, rowStart, rowEnd);
+        } else
+        {
+            Gemm.gemmRowsNN(transA, m, n, k, a, b, c, rowStart, rowEnd);
+        }
+    }
+
+    private static void gemmRowsNN(final boolean transA,
+                                   final int m,
+                                   final int n,
+                                   final int k,
+                                   final float[] a,
+                                   final float[] b,
+                                   final float[] c,
+                                   final int rowStart,
+                                   final int rowEnd)
+    {
+        final Kernels kernels = Kernels.get();
+        for(int pStart = 0; pStart < k; pStart += TILE_INNER)
+        {
+            final int pEnd = Math.min(k, pStart + TILE_INNER);
+            for(int i = rowStart; i < rowEnd; ++i)
+            {
+                final int cOffset = i * n;
+                for(int p = pStart; p < pEnd; ++p)
+                {
+                    final float aip = transA ? a[p * m + i] : a[i * k + p];
+                    if(aip == 0.0f)
+                    {
+                        continue;
+                    }
+                    kernels.axpy(aip, b, p * n, c, cOffset, n);
+                }
+            }
+        }
+    }
+
+    private static void gemmRowsNT(final int n,
+                                   final int k,
+                                   final float[] a,
+                                   final float[] b,
+                                   final float[] c,
+                                   final int rowStart,
+                                   final int rowEnd)
+    {
+        final Kernels kernels = Kernels.get();
+        for(int jStart = 0; jStart < n; jStart += TILE_INNER)
+        {
+            final int jEnd = Math.min(n, jStart + TILE_INNER);
+            for(int i = rowStart; i < rowEnd; ++i)
+            {
+                final int aOffset = i * k;
+                final int cOffset = i * n;
+                for(int j = jStart; j < jEnd; ++j)
+                {
+                    c[cOffset + j] += kernels.dot(a, aOffset, b, j * k, k);
+                }
+            }
+        }
+    }
+
+    private static class RowTiles
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+        private final int       rowStart;
+        private final int       rowEnd;
+
+        public RowTiles(RowKernel kernel, int rowStart, int rowEnd)
+        {
+            this.kernel = kernel;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(this.rowEnd - this.rowStart <= TILE_ROWS)
+            {
+                this.kernel.compute(this.rowStart, this.rowEnd);
+                return;
+            }
+
+            // split on a tile boundary so leaves are whole tiles
+            final int numTiles = (this.rowEnd - this.rowStart + TILE_ROWS - 1) / TILE_ROWS;
+            final int mid = this.rowStart + (numTiles / 2) * TILE_ROWS;
+            RecursiveAction.invokeAll(new RowTiles(this.kernel, this.rowStart, mid),
+                                      new RowTiles(this.kernel, mid, this.rowEnd));
+        }
+    }
+
+    /** Row-major copy of a Matrix's values. */
+    public static double[] toArray(final Matrix matrix)
+    {
+        return Gemm.toArray(matrix, new double[matrix.numel()]);
+    }
+
+    /** Writes a Matrix's values row-major into the start of values (which may be longer) and returns it. */
+    public static double[] toArray(final Matrix matrix,
+                                   final double[] values)
+    {
+        final int numRows = matrix.getShape().getNumRows();
+        final int numCols = matrix.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                values[row * numCols + col] = matrix.get(row, col);
+            }
+        }
+        return values;
+    }
+
+    /** Writes a Matrix's values row-major, rounded to float32, into the start of values and returns it. */
+    public static float[] toArray(final Matrix matrix,
+                                  final float[] values)
+    {
+        final int numRows = matrix.getShape().getNumRows();
+        final int numCols = matrix.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                values[row * numCols + col] = (float)matrix.get(row, col);
+            }
+        }
+        return values;
+    }
+
+    /** Matrix holding the first numRows * numCols of the given row-major values. */
+    public static Matrix fromArray(final int numRows,
+                                   final int numCols,
+                                   final float[] values)
+    {
+        Matrix matrix = Matrix.zeros(numRows, numCols);
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                matrix.set(row, col, values[row * numCols + col]);
+            }
+        }
+        return matrix;
+    }
+
+    /** Matrix holding the first numRows * numCols of the given row-major values. */
+    public static Matrix fromArray(final int numRows,
+                                   final int numCols,
+                                   final double[] values)
+    {
+        Matrix matrix = Matrix.zeros(numRows, numCols);
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                matrix.set(row, col, values[row * numCols + col]);
+            }
+        }
+        return matrix;
+    }
+
+    /** op(a) * op(b) as a new Matrix. Same result as a.matmul(b) with explicit transposes, up to rounding. */
+    public static Matrix matmul(final Matrix a,
+                                final boolean transA,
+                                final Matrix b,
+                                final boolean transB)
+    {
+        final int m = transA ? a.getShape().getNumCols() : a.getShape().getNumRows();
+        final int k = transA ? a.getShape().getNumRows() : a.getShape().getNumCols();
+        final int kB = transB ? b.getShape().getNumCols() : b.getShape().getNumRows();
+        final int n = transB ? b.getShape().getNumRows() : b.getShape().getNumCols();
+        if(k != kB)
+        {
+            System.err.println("[ERROR] Gemm.matmul: cannot multiply " + m + "x" + k + " by " + kB + "x" + n);
+            System.exit(-1);
+        }
+
+        double[] c = new double[m * n];
+        Gemm.gemm(transA, transB, m, n, k, Gemm.toArray(a), Gemm.toArray(b), c, false);
+        return Gemm.fromArray(m, n, c);
+    }
+
+}
@@ -0,0 +1,68 @@
+package src.pas.tetris.linalg;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * The innermost loops of Gemm and the fused layers, behind one interface so they can run on SIMD
+ * instructions when the jdk.incubator.vector module is available:
+ *
+ *      axpy        c[cOffset, +n) += alpha * b[bOffset, +n)        (rows of NN / TN products)
+ *      dot         sum of a[aOffset, +n) * b[bOffset, +n)          (entries of NT products)
+ *      addBiasReLU z[offset, +n) += bias[0, n), out = max(z, 0)    (one row of FastDenseReLU)
+ *      relu        out[offset, +n) = max(x, 0)                     (FastActivation)
+ *      tanh        out[offset, +n) = coeff * tanh(x)
+ *      sigmoid     out[offset, +n) = coeff / (1 + exp(-x))
+ *
+ * get() picks VectorKernels if the JVM was started with --add-modules jdk.incubator.vector (and the
+ * system property tetris.vector is not "false"), otherwise ScalarKernels. VectorKernels is only ever
+ * touched through reflection, so the scalar path works on a JVM that doesn't resolve the module.
+ */
+public abstract class Kernels
+    extends Object
+{
+
+    public static final String VECTOR_MODULE            = "jdk.incubator.vector";
+    public static final String VECTOR_PROPERTY          = "tetris.vector";
+    private static final String VECTOR_KERNELS_CLASS    = "src.pas.tetris.linalg.VectorKernels";
+
+    private static final Kernels INSTANCE = Kernels.load();
+
+    public static Kernels get() { return INSTANCE; }
+
+    private static Kernels load()
+    {
+        if(!"false".equals(System.getProperty(VECTOR_PROPERTY))
+           && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent())
+        {
+            try
+            {
+                return (Kernels)Class.forName(VECTOR_KERNELS_CLASS).getDeclaredConstructor().newInstance();
+            } catch(ReflectiveOperationException | LinkageError e)
+            {
+                System.err.println("[WARNING] Kernels.load: could not load " + VECTOR_KERNELS_CLASS
+                                   + ", using scalar kernels (" + e + ")");
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    public abstract String getName();
+
+    public abstract void axpy(double alpha, double[] b, int bOffset, double[] c, int cOffset, int n);
+    public abstract void axpy(float alpha, float[] b, int bOffset, float[] c, int cOffset, int n);
+
+    public abstract double dot(double[] a, int aOffset, double[] b, int bOffset, int n);
+    public abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int n);
+
+    public abstract void addBiasReLU(double[] z, int offset, double[] bias, double[] out, int n);
+
+    public abstract void relu(double[] x, int offset, double[] out, int n);
+    public abstract void tanh(double coeff, double[] x, int offset, double[] out, int n);
+    public abstract void sigmoid(double coeff, double[] x, int offset, double[] out, int n);
+
+}
@@ -0,0 +1,291 @@
+package src.pas.tetris.linalg;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+
+
+/**
+ * In-place and fused versions of the Matrix operations the training loop chains together. Every
+ * Matrix.add / subtract / emul / apply returns a fresh Matrix (and broadcasting a scalar needs one more
+ * from Matrix.full), so e.g. one upstream Adam step allocates about ten temporaries per parameter. These
+ * write into an existing Matrix instead. Matrix keeps its storage private, so they go through get/set.
+ *
+ * Shapes must match exactly (no broadcasting) except where a method says otherwise.
+ */
+public class MatrixOps
+    extends Object
+{
+
+    private MatrixOps() {}
+
+    private static void checkSameShape(final String methodName,
+                                       final Matrix a,
+                                       final Matrix b)
+    {
+        if(!a.getShape().equals(b.getShape()))
+        {
+            System.err.println("[ERROR] MatrixOps." + methodName + ": shape " + a.getShape() + " does not match "
+                               + b.getShape());
+            System.exit(-1);
+        }
+    }
+
+    /** dst += src */
+    public static Matrix addInPlace(final Matrix dst,
+                                    final Matrix src)
+    {
+        return MatrixOps.axpy(1.0, src, dst);
+    }
+
+    /** dst -= src */
+    public static Matrix subtractInPlace(final Matrix dst,
+                                         final Matrix src)
+    {
+        return MatrixOps.axpy(-1.0, src, dst);
+    }
+
+    /** y += alpha * x */
+    public static Matrix axpy(final double alpha,
+                              final Matrix x,
+                              final Matrix y)
+    {
+        MatrixOps.checkSameShape("axpy", x, y);
+        final int numRows = y.getShape().getNumRows();
+        final int numCols = y.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                y.set(row, col, y.get(row, col) + alpha * x.get(row, col));
+            }
+        }
+        return y;
+    }
+
+    /** y += alpha * x, where x is y's values in row-major order. */
+    public static Matrix axpy(final double alpha,
+                              final double[] x,
+                              final Matrix y)
+    {
+        final int numRows = y.getShape().getNumRows();
+        final int numCols = y.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                y.set(row, col, y.get(row, col) + alpha * x[row * numCols + col]);
+            }
+        }
+        return y;
+    }
+
+    /** y += alpha * x, where x is y's values in row-major order (float32). */
+    public static Matrix axpy(final double alpha,
+                              final float[] x,
+                              final Matrix y)
+    {
+        final int numRows = y.getShape().getNumRows();
+        final int numCols = y.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                y.set(row, col, y.get(row, col) + alpha * x[row * numCols + col]);
+            }
+        }
+        return y;
+    }
+
+    /**
+     * dst *= src elementwise. src may also be a column vector with dst's number of rows (one scale per
+     * row, e.g. importance-sampling weights applied to a loss gradient).
+     */
+    public static Matrix emulInPlace(final Matrix dst,
+                                     final Matrix src)
+    {
+        final int numRows = dst.getShape().getNumRows();
+        final int numCols = dst.getShape().getNumCols();
+        final boolean perRow = src.getShape().getNumCols() == 1 && src.getShape().getNumRows() == numRows;
+        if(!perRow)
+        {
+            MatrixOps.checkSameShape("emulInPlace", dst, src);
+        }
+
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                dst.set(row, col, dst.get(row, col) * src.get(row, perRow ? 0 : col));
+            }
+        }
+        return dst;
+    }
+
+    /** dst *= alpha */
+    public static Matrix scaleInPlace(final Matrix dst,
+                                      final double alpha)
+    {
+        final int numRows = dst.getShape().getNumRows();
+        final int numCols = dst.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                dst.set(row, col, alpha * dst.get(row, col));
+            }
+        }
+        return dst;
+    }
+
+    public static Matrix fill(final Matrix dst,
+                              final double value)
+    {
+        final int numRows = dst.getShape().getNumRows();
+        final int numCols = dst.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                dst.set(row, col, value);
+            }
+        }
+        return dst;
+    }
+
+    /** dst = src, without allocating a new Matrix like src.copy() does. */
+    public static Matrix copyInto(final Matrix src,
+                                  final Matrix dst)
+    {
+        MatrixOps.checkSameShape("copyInto", src, dst);
+        final int numRows = dst.getShape().getNumRows();
+        final int numCols = dst.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                dst.set(row, col, src.get(row, col));
+            }
+        }
+        return dst;
+    }
+
+    /** dst = alpha * x + beta * dst (e.g. a Polyak average when beta = 1 - alpha). */
+    public static Matrix axpby(final double alpha,
+                               final Matrix x,
+                               final double beta,
+                               final Matrix dst)
+    {
+        MatrixOps.checkSameShape("axpby", x, dst);
+        final int numRows = dst.getShape().getNumRows();
+        final int numCols = dst.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                dst.set(row, col, alpha * x.get(row, col) + beta * dst.get(row, col));
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Fused bias-add + ReLU over a row-major [numRows x numCols] block: z[i][j] += bias[j] and
+     * out[i][j] = max(z[i][j], 0). z keeps the pre-activations (ReLU's backwards pass needs them) and
+     * out may be z itself if they are not needed.
+     */
+    public static void addBiasReLU(final double[] z,
+                                   final double[] bias,
+                                   final int numRows,
+                                   final int numCols,
+                                   final double[] out)
+    {
+        final Kernels kernels = Kernels.get();
+        for(int row = 0; row < numRows; ++row)
+        {
+            kernels.addBiasReLU(z, row * numCols, bias, out, numCols);
+        }
+    }
+
+    /**
+     * One fused Adam step for one parameter, elementwise and with the exact arithmetic of the upstream
+     * AdamOptimizer (no bias correction):
+     *
+     *      m = beta1 * m + (1 - beta1) * g
+     *      v = beta2 * v + (1 - beta2) * g^2
+     *      u = m / sqrt(v + epsilon), clipped to [lClip, rClip] if both are given
+     *      value -= lr * u
+     *      g = 0
+     *
+     * m, v, value and the gradient are all updated in place.
+     */
+    public static void adamUpdate(final Matrix value,
+                                  final Matrix gradient,
+                                  final Matrix m,
+                                  final Matrix v,
+                                  final double beta1,
+                                  final double beta2,
+                                  final double epsilon,
+                                  final double learningRate,
+                                  final Double lClipValue,
+                                  final Double rClipValue)
+    {
+        MatrixOps.checkSameShape("adamUpdate", value, gradient);
+        final boolean clip = lClipValue != null && rClipValue != null;
+        final double lClip = clip ? lClipValue : 0.0;
+        final double rClip = clip ? rClipValue : 0.0;
+        final int numRows = value.getShape().getNumRows();
+        final int numCols = value.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                final double g = gradient.get(row, col);
+                final double mt = beta1 * m.get(row, col) + (1.0 - beta1) * g;
+                final double vt = beta2 * v.get(row, col) + (1.0 - beta2) * g * g;
+                double update = mt / Math.sqrt(vt + epsilon);
+                if(clip)
+                {
+                    update = Math.min(Math.max(update, lClip), rClip);
+                }
+
+                m.set(row, col, mt);
+                v.set(row, col, vt);
+                value.set(row, col, value.get(row, col) - learningRate * update);
+                gradient.set(row, col, 0.0);
+            }
+        }
+    }
+
+    /** One fused SGD step: value -= lr * clip(g), then g = 0. */
+    public static void sgdUpdate(final Matrix value,
+                                 final Matrix gradient,
+                                 final double learningRate,
+                                 final Double lClipValue,
+                                 final Double rClipValue)
+    {
+        MatrixOps.checkSameShape("sgdUpdate", value, gradient);
+        final boolean clip = lClipValue != null && rClipValue != null;
+        final double lClip = clip ? lClipValue : 0.0;
+        final double rClip = clip ? rClipValue : 0.0;
+        final int numRows = value.getShape().getNumRows();
+        final int numCols = value.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                double g = gradient.get(row, col);
+                if(clip)
+                {
+                    g = Math.min(Math.max(g, lClip), rClip);
+                }
+                value.set(row, col, value.get(row, col) - learningRate * g);
+                gradient.set(row, col, 0.0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package src.pas.tetris.linalg;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Number format used for bulk numeric storage and arithmetic (GEMM operands, replay buffer features).
+ * Matrix and Parameter themselves are upstream and always hold doubles.
+ */
+public enum Precision
+{
+    FLOAT64,
+    FLOAT32;
+}
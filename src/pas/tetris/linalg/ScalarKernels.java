@@ -0,0 +1,98 @@
+package src.pas.tetris.linalg;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Plain loops (which the JIT may still auto-vectorize). dot() adds the products strictly left to
+ * right, so NT products come out exactly like Matrix.matmul on an explicit transpose.
+ */
+public class ScalarKernels
+    extends Kernels
+{
+
+    @Override
+    public String getName() { return "scalar"; }
+
+    @Override
+    public void axpy(double alpha, double[] b, int bOffset, double[] c, int cOffset, int n)
+    {
+        for(int j = 0; j < n; ++j)
+        {
+            c[cOffset + j] += alpha * b[bOffset + j];
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] b, int bOffset, float[] c, int cOffset, int n)
+    {
+        for(int j = 0; j < n; ++j)
+        {
+            c[cOffset + j] += alpha * b[bOffset + j];
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int n)
+    {
+        double sum = 0.0;
+        for(int p = 0; p < n; ++p)
+        {
+            sum += a[aOffset + p] * b[bOffset + p];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int n)
+    {
+        float sum = 0.0f;
+        for(int p = 0; p < n; ++p)
+        {
+            sum += a[aOffset + p] * b[bOffset + p];
+        }
+        return sum;
+    }
+
+    @Override
+    public void addBiasReLU(double[] z, int offset, double[] bias, double[] out, int n)
+    {
+        for(int j = 0; j < n; ++j)
+        {
+            z[offset + j] += bias[j];
+            out[offset + j] = Math.max(z[offset + j], 0.0);
+        }
+    }
+
+    @Override
+    public void relu(double[] x, int offset, double[] out, int n)
+    {
+        for(int j = offset; j < offset + n; ++j)
+        {
+            out[j] = Math.max(x[j], 0.0);
+        }
+    }
+
+    @Override
+    public void tanh(double coeff, double[] x, int offset, double[] out, int n)
+    {
+        for(int j = offset; j < offset + n; ++j)
+        {
+            out[j] = coeff * Math.tanh(x[j]);
+        }
+    }
+
+    @Override
+    public void sigmoid(double coeff, double[] x, int offset, double[] out, int n)
+    {
+        for(int j = offset; j < offset + n; ++j)
+        {
+            out[j] = coeff / (1.0 + Math.exp(-x[j]));
+        }
+    }
+
+}
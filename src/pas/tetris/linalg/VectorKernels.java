@@ -0,0 +1,174 @@
+package src.pas.tetris.linalg;
+
+
+// SYSTEM IMPORTS
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Kernels on the Vector API at the platform's preferred width (4 doubles / 8 floats with AVX2, 8 / 16
+ * with AVX-512), with a scalar loop for the tail. Only load this through Kernels.get(): referencing it
+ * directly fails on a JVM started without --add-modules jdk.incubator.vector.
+ *
+ * Products use fused multiply-adds and dot() keeps one partial sum per lane (added up at the end), and
+ * tanh/exp are the Vector API's lanewise approximations, so results can differ from the scalar kernels
+ * in the last few bits.
+ */
+public class VectorKernels
+    extends Kernels
+{
+
+    private static final VectorSpecies<Double>  DOUBLES     = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float>   FLOATS      = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() { return "vector(" + DOUBLES.length() + "xf64, " + FLOATS.length() + "xf32)"; }
+
+    @Override
+    public void axpy(double alpha, double[] b, int bOffset, double[] c, int cOffset, int n)
+    {
+        final DoubleVector alphas = DoubleVector.broadcast(DOUBLES, alpha);
+        final int bound = DOUBLES.loopBound(n);
+        int j = 0;
+        for(; j < bound; j += DOUBLES.length())
+        {
+            DoubleVector bs = DoubleVector.fromArray(DOUBLES, b, bOffset + j);
+            DoubleVector cs = DoubleVector.fromArray(DOUBLES, c, cOffset + j);
+            bs.fma(alphas, cs).intoArray(c, cOffset + j);
+        }
+        for(; j < n; ++j)
+        {
+            c[cOffset + j] += alpha * b[bOffset + j];
+        }
+    }
+
+    @Override
+    public void axpy(float alpha, float[] b, int bOffset, float[] c, int cOffset, int n)
+    {
+        final FloatVector alphas = FloatVector.broadcast(FLOATS, alpha);
+        final int bound = FLOATS.loopBound(n);
+        int j = 0;
+        for(; j < bound; j += FLOATS.length())
+        {
+            FloatVector bs = FloatVector.fromArray(FLOATS, b, bOffset + j);
+            FloatVector cs = FloatVector.fromArray(FLOATS, c, cOffset + j);
+            bs.fma(alphas, cs).intoArray(c, cOffset + j);
+        }
+        for(; j < n; ++j)
+        {
+            c[cOffset + j] += alpha * b[bOffset + j];
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int n)
+    {
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        final int bound = DOUBLES.loopBound(n);
+        int p = 0;
+        for(; p < bound; p += DOUBLES.length())
+        {
+            DoubleVector as = DoubleVector.fromArray(DOUBLES, a, aOffset + p);
+            DoubleVector bs = DoubleVector.fromArray(DOUBLES, b, bOffset + p);
+            sums = as.fma(bs, sums);
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; p < n; ++p)
+        {
+            sum += a[aOffset + p] * b[bOffset + p];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int n)
+    {
+        FloatVector sums = FloatVector.zero(FLOATS);
+        final int bound = FLOATS.loopBound(n);
+        int p = 0;
+        for(; p < bound; p += FLOATS.length())
+        {
+            FloatVector as = FloatVector.fromArray(FLOATS, a, aOffset + p);
+            FloatVector bs = FloatVector.fromArray(FLOATS, b, bOffset + p);
+            sums = as.fma(bs, sums);
+        }
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; p < n; ++p)
+        {
+            sum += a[aOffset + p] * b[bOffset + p];
+        }
+        return sum;
+    }
+
+    @Override
+    public void addBiasReLU(double[] z, int offset, double[] bias, double[] out, int n)
+    {
+        final int bound = DOUBLES.loopBound(n);
+        int j = 0;
+        for(; j < bound; j += DOUBLES.length())
+        {
+            DoubleVector zs = DoubleVector.fromArray(DOUBLES, z, offset + j).add(DoubleVector.fromArray(DOUBLES, bias, j));
+            zs.intoArray(z, offset + j);
+            zs.max(0.0).intoArray(out, offset + j);
+        }
+        for(; j < n; ++j)
+        {
+            z[offset + j] += bias[j];
+            out[offset + j] = Math.max(z[offset + j], 0.0);
+        }
+    }
+
+    @Override
+    public void relu(double[] x, int offset, double[] out, int n)
+    {
+        final int bound = offset + DOUBLES.loopBound(n);
+        int j = offset;
+        for(; j < bound; j += DOUBLES.length())
+        {
+            DoubleVector.fromArray(DOUBLES, x, j).max(0.0).intoArray(out, j);
+        }
+        for(; j < offset + n; ++j)
+        {
+            out[j] = Math.max(x[j], 0.0);
+        }
+    }
+
+    @Override
+    public void tanh(double coeff, double[] x, int offset, double[] out, int n)
+    {
+        final int bound = offset + DOUBLES.loopBound(n);
+        int j = offset;
+        for(; j < bound; j += DOUBLES.length())
+        {
+            DoubleVector.fromArray(DOUBLES, x, j).lanewise(VectorOperators.TANH).mul(coeff).intoArray(out, j);
+        }
+        for(; j < offset + n; ++j)
+        {
+            out[j] = coeff * Math.tanh(x[j]);
+        }
+    }
+
+    @Override
+    public void sigmoid(double coeff, double[] x, int offset, double[] out, int n)
+    {
+        final DoubleVector coeffs = DoubleVector.broadcast(DOUBLES, coeff);
+        final int bound = offset + DOUBLES.loopBound(n);
+        int j = offset;
+        for(; j < bound; j += DOUBLES.length())
+        {
+            DoubleVector exps = DoubleVector.fromArray(DOUBLES, x, j).neg().lanewise(VectorOperators.EXP);
+            coeffs.div(exps.add(1.0)).intoArray(out, j);
+        }
+        for(; j < offset + n; ++j)
+        {
+            out[j] = coeff / (1.0 + Math.exp(-x[j]));
+        }
+    }
+
+}
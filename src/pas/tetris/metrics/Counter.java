@@ -0,0 +1,30 @@
+package src.pas.tetris.metrics;
+
+
+// SYSTEM IMPORTS
+import java.util.concurrent.atomic.LongAdder;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * A monotonically increasing count, e.g. moves played. Backed by a LongAdder (striped per thread under
+ * contention), so rollout workers can all increment it without fighting over one cache line.
+ */
+public class Counter
+    extends Object
+{
+
+    private final LongAdder count;
+
+    public Counter()
+    {
+        this.count = new LongAdder();
+    }
+
+    public void increment() { this.count.increment(); }
+    public void add(long amount) { this.count.add(amount); }
+    public long get() { return this.count.sum(); }
+
+}
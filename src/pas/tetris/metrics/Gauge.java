@@ -0,0 +1,40 @@
+package src.pas.tetris.metrics;
+
+
+// SYSTEM IMPORTS
+import java.util.function.DoubleSupplier;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * A value sampled whenever the metrics are exported, e.g. how full the replay buffer is. Either read from
+ * a supplier, or set directly (set() is ignored for supplier-backed gauges).
+ */
+public class Gauge
+    extends Object
+{
+
+    private final DoubleSupplier supplier;  // null: the gauge reports value
+    private volatile double value;
+
+    public Gauge()
+    {
+        this(null);
+    }
+
+    public Gauge(DoubleSupplier supplier)
+    {
+        this.supplier = supplier;
+        this.value = Double.NaN;
+    }
+
+    public void set(double value) { this.value = value; }
+
+    public double get()
+    {
+        return this.supplier != null ? this.supplier.getAsDouble() : this.value;
+    }
+
+}
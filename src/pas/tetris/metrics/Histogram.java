@@ -0,0 +1,154 @@
+package src.pas.tetris.metrics;
+
+
+// SYSTEM IMPORTS
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Distribution of a non-negative quantity, e.g. forward pass nanoseconds or minibatch losses, over the
+ * window since the last snapshot().
+ *
+ * Values go into log-scale buckets: one per binary exponent, split into SUB_BUCKETS by the top mantissa
+ * bits, so quantiles are accurate to within 1/SUB_BUCKETS of their value over the whole double range
+ * (losses around 1e-9 and latencies around 1e6 alike) with a fixed number of buckets. The buckets,
+ * the sum and the max are LongAdders / DoubleAdders, so record() never blocks.
+ */
+public class Histogram
+    extends Object
+{
+
+    public static final int     SUB_BUCKET_BITS = 2;
+    public static final int     SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+    public static final int     MIN_EXPONENT    = -64;  // smaller values (and 0) go to the first bucket
+    public static final int     MAX_EXPONENT    = 63;   // larger values go to the last
+    public static final int     NUM_BUCKETS     = (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    /** count, mean, p50, p99 and max of one window (NaN statistics if it is empty). */
+    public static class Snapshot
+        extends Object
+    {
+        private final long   count;
+        private final double mean;
+        private final double p50;
+        private final double p99;
+        private final double max;
+
+        public Snapshot(long count,
+                        double mean,
+                        double p50,
+                        double p99,
+                        double max)
+        {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public final long getCount() { return this.count; }
+        public final double getMean() { return this.mean; }
+        public final double getP50() { return this.p50; }
+        public final double getP99() { return this.p99; }
+        public final double getMax() { return this.max; }
+    }
+
+    private final LongAdder[]       buckets;
+    private final DoubleAdder       sum;
+    private final DoubleAccumulator max;
+
+    public Histogram()
+    {
+        this.buckets = new LongAdder[NUM_BUCKETS];
+        for(int bucketIdx = 0; bucketIdx < NUM_BUCKETS; ++bucketIdx)
+        {
+            this.buckets[bucketIdx] = new LongAdder();
+        }
+        this.sum = new DoubleAdder();
+        this.max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    }
+
+    private static int getBucketIdx(final double value)
+    {
+        if(!(value > 0.0))
+        {
+            return 0;
+        }
+        final int exponent = Math.getExponent(value);
+        if(exponent < MIN_EXPONENT)
+        {
+            return 0;
+        }
+        if(exponent > MAX_EXPONENT)
+        {
+            return NUM_BUCKETS - 1;
+        }
+        final int subBucket = (int)(Double.doubleToRawLongBits(value) >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Largest value that lands in the bucket. */
+    private static double getBucketUpperBound(final int bucketIdx)
+    {
+        final int exponent = bucketIdx / SUB_BUCKETS + MIN_EXPONENT;
+        final int subBucket = bucketIdx % SUB_BUCKETS;
+        return Math.scalb(1.0 + (subBucket + 1) / (double)SUB_BUCKETS, exponent);
+    }
+
+    public void record(final double value)
+    {
+        this.buckets[Histogram.getBucketIdx(value)].increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Statistics of the values recorded since the previous snapshot, and starts a new window. Values
+     * recorded while this runs land in either window (but are never lost).
+     */
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for(int bucketIdx = 0; bucketIdx < NUM_BUCKETS; ++bucketIdx)
+        {
+            counts[bucketIdx] = this.buckets[bucketIdx].sumThenReset();
+            total += counts[bucketIdx];
+        }
+        final double sum = this.sum.sumThenReset();
+        final double max = this.max.getThenReset();
+        if(total == 0)
+        {
+            return new Snapshot(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+
+        return new Snapshot(total, sum / total,
+                            Math.min(max, Histogram.getQuantile(counts, total, 0.50)),
+                            Math.min(max, Histogram.getQuantile(counts, total, 0.99)),
+                            max);
+    }
+
+    private static double getQuantile(final long[] counts,
+                                      final long total,
+                                      final double quantile)
+    {
+        final long rank = (long)Math.ceil(quantile * total);
+        long seen = 0;
+        for(int bucketIdx = 0; bucketIdx < NUM_BUCKETS; ++bucketIdx)
+        {
+            seen += counts[bucketIdx];
+            if(seen >= rank)
+            {
+                return Histogram.getBucketUpperBound(bucketIdx);
+            }
+        }
+        return Histogram.getBucketUpperBound(NUM_BUCKETS - 1);
+    }
+
+}
@@ -0,0 +1,164 @@
+package src.pas.tetris.metrics;
+
+
+// SYSTEM IMPORTS
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Appends a snapshot of a MetricsRegistry to a file every periodSecs seconds (on a daemon thread), and
+ * once more when the jvm exits, so the run can be watched (tail -f, pandas, ...) while it trains.
+ *
+ * Every snapshot has, besides its wall-clock timeMs,
+ *
+ *      <counter>.count, <counter>.ratePerSec         total so far, and per second since the last snapshot
+ *      <histogram>.count/.mean/.p50/.p99/.max        over the values recorded since the last snapshot
+ *      <gauge>                                       its current value
+ *
+ * If the file name ends in ".csv" it is written in long format (one "timeMs,metric,value" row per value,
+ * so metrics that show up later don't change the columns), otherwise as JSON lines (one object per
+ * snapshot, NaN written as null). The file is appended to, so a resumed run continues it.
+ */
+public class MetricsExporter
+    extends Object
+{
+
+    public static final String CSV_HEADER = "timeMs,metric,value";
+
+    private final MetricsRegistry          registry;
+    private final Path                     path;
+    private final boolean                  isCsv;
+    private final ScheduledExecutorService exporter;
+    private final Map<String, Long>        lastCounts;
+    private long                           lastTimeNanos;
+
+    public MetricsExporter(MetricsRegistry registry,
+                           String filePath,
+                           long periodSecs)
+    {
+        this.registry = registry;
+        this.path = Paths.get(filePath);
+        this.isCsv = filePath.endsWith(".csv");
+        this.lastCounts = new LinkedHashMap<String, Long>();
+        this.lastTimeNanos = System.nanoTime();
+
+        this.exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-exporter");
+            thread.setDaemon(true); // the shutdown hook below writes the last snapshot instead
+            return thread;
+        });
+        this.exporter.scheduleAtFixedRate(this::export, periodSecs, periodSecs, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "metrics-exporter-shutdown"));
+    }
+
+    public final MetricsRegistry getRegistry() { return this.registry; }
+    public final Path getPath() { return this.path; }
+
+    /** The current values, in the order described above. */
+    private Map<String, Double> snapshot()
+    {
+        final long timeNanos = System.nanoTime();
+        final double elapsedSecs = (timeNanos - this.lastTimeNanos) / 1e9;
+        this.lastTimeNanos = timeNanos;
+
+        Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for(Map.Entry<String, Counter> entry : this.getRegistry().getCounters().entrySet())
+        {
+            final long count = entry.getValue().get();
+            final long lastCount = this.lastCounts.getOrDefault(entry.getKey(), 0L);
+            this.lastCounts.put(entry.getKey(), count);
+            values.put(entry.getKey() + ".count", (double)count);
+            values.put(entry.getKey() + ".ratePerSec", elapsedSecs > 0 ? (count - lastCount) / elapsedSecs : Double.NaN);
+        }
+        for(Map.Entry<String, Histogram> entry : this.getRegistry().getHistograms().entrySet())
+        {
+            Histogram.Snapshot snapshot = entry.getValue().snapshot();
+            values.put(entry.getKey() + ".count", (double)snapshot.getCount());
+            values.put(entry.getKey() + ".mean", snapshot.getMean());
+            values.put(entry.getKey() + ".p50", snapshot.getP50());
+            values.put(entry.getKey() + ".p99", snapshot.getP99());
+            values.put(entry.getKey() + ".max", snapshot.getMax());
+        }
+        for(Map.Entry<String, Gauge> entry : this.getRegistry().getGauges().entrySet())
+        {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    private static String format(final double value)
+    {
+        if(Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return null;
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long)value) : Double.toString(value);
+    }
+
+    /** Appends one snapshot. Called periodically; failures are reported but don't stop training. */
+    public synchronized void export()
+    {
+        final long timeMs = System.currentTimeMillis();
+        final Map<String, Double> values = this.snapshot();
+        final boolean isNewFile = !Files.exists(this.getPath());
+
+        StringBuilder text = new StringBuilder();
+        if(this.isCsv)
+        {
+            if(isNewFile)
+            {
+                text.append(CSV_HEADER).append('\n');
+            }
+            for(Map.Entry<String, Double> entry : values.entrySet())
+            {
+                String value = MetricsExporter.format(entry.getValue());
+                text.append(timeMs).append(',').append(entry.getKey()).append(',').append(value != null ? value : "").append('\n');
+            }
+        } else
+        {
+            text.append("{\"timeMs\":").append(timeMs);
+            for(Map.Entry<String, Double> entry : values.entrySet())
+            {
+                text.append(",\"").append(entry.getKey()).append("\":").append(MetricsExporter.format(entry.getValue()));
+            }
+            text.append("}\n");
+        }
+
+        try(BufferedWriter writer = Files.newBufferedWriter(this.getPath(), StandardCharsets.UTF_8,
+                                                            StandardOpenOption.CREATE, StandardOpenOption.APPEND))
+        {
+            writer.write(text.toString());
+        } catch(IOException e)
+        {
+            System.err.println("[ERROR] MetricsExporter.export: unable to write metrics to " + this.getPath());
+            e.printStackTrace();
+        }
+    }
+
+    /** Stops the periodic exports and writes a last snapshot. */
+    public void close()
+    {
+        if(this.exporter.isShutdown())
+        {
+            return;
+        }
+        this.exporter.shutdownNow();
+        this.export();
+    }
+
+}
@@ -0,0 +1,65 @@
+package src.pas.tetris.metrics;
+
+
+// SYSTEM IMPORTS
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Named Counters, Histograms and Gauges of a training run. Metrics are created on first use, so code that
+ * records something just asks for it by name (and should keep the returned object if it is on a hot
+ * path). Names are dotted, e.g. "q.forwardNanos"; the maps are sorted so exports list them in a stable
+ * order.
+ *
+ * Thread-safe. The metrics themselves never block, see Counter and Histogram.
+ */
+public class MetricsRegistry
+    extends Object
+{
+
+    private final Map<String, Counter>   counters;
+    private final Map<String, Histogram> histograms;
+    private final Map<String, Gauge>     gauges;
+
+    public MetricsRegistry()
+    {
+        this.counters = new ConcurrentSkipListMap<String, Counter>();
+        this.histograms = new ConcurrentSkipListMap<String, Histogram>();
+        this.gauges = new ConcurrentSkipListMap<String, Gauge>();
+    }
+
+    public final Map<String, Counter> getCounters() { return this.counters; }
+    public final Map<String, Histogram> getHistograms() { return this.histograms; }
+    public final Map<String, Gauge> getGauges() { return this.gauges; }
+
+    public Counter counter(final String name)
+    {
+        return this.getCounters().computeIfAbsent(name, n -> new Counter());
+    }
+
+    public Histogram histogram(final String name)
+    {
+        return this.getHistograms().computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** A gauge whose value is set() by the caller. */
+    public Gauge gauge(final String name)
+    {
+        return this.getGauges().computeIfAbsent(name, n -> new Gauge());
+    }
+
+    /** A gauge that reads supplier on every export (replaces any gauge of that name). */
+    public Gauge gauge(final String name,
+                       final DoubleSupplier supplier)
+    {
+        Gauge gauge = new Gauge(supplier);
+        this.getGauges().put(name, gauge);
+        return gauge;
+    }
+
+}
@@ -0,0 +1,132 @@
+package src.pas.tetris.nn;
+
+
+// SYSTEM IMPORTS
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.Parameter;
+
+
+/**
+ * Saves Checkpoints off the training thread. save() only encodes a snapshot of the parameters (and
+ * moments) into one of NUM_BUFFERS pooled buffers, which is cheap and must happen right away since
+ * training keeps modifying them in place, and returns; a single background thread then writes the
+ * snapshots, in order, with Checkpoint.write (fsync + atomic rename, so a crash mid-write leaves the
+ * previous checkpoint in place).
+ *
+ * If every buffer is still waiting to be written, save() blocks until one is free rather than piling up
+ * snapshots. Pending writes are finished before the jvm exits (Main ends with System.exit), or on flush().
+ */
+public class AsyncCheckpointWriter
+    extends Object
+{
+
+    public static final int         NUM_BUFFERS             = 2;
+    private static final long       SHUTDOWN_TIMEOUT_SECS   = 60;
+
+    private final ExecutorService           writer;
+    private final BlockingQueue<ByteBuffer> freeBuffers;
+    private int                             numBuffers;     // allocated so far, at most NUM_BUFFERS
+
+    public AsyncCheckpointWriter()
+    {
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true); // the shutdown hook below drains it instead
+            return thread;
+        });
+        this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>(NUM_BUFFERS);
+        this.numBuffers = 0;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "checkpoint-writer-shutdown"));
+    }
+
+    private synchronized ByteBuffer takeBuffer() throws InterruptedException
+    {
+        ByteBuffer buffer = this.freeBuffers.poll();
+        if(buffer == null && this.numBuffers < NUM_BUFFERS)
+        {
+            ++this.numBuffers;
+            return null; // Checkpoint.encode allocates it
+        }
+        return buffer != null ? buffer : this.freeBuffers.take();
+    }
+
+    /**
+     * Snapshots the parameters (and the moments, if both lists are non-null) and queues the snapshot to be
+     * written to filePath. Returns once the snapshot is taken, i.e. the caller may modify them right away.
+     */
+    public void save(final String filePath,
+                     final List<Parameter> parameters,
+                     final List<Matrix> mts,
+                     final List<Matrix> vts)
+    {
+        ByteBuffer snapshot = null;
+        try
+        {
+            snapshot = Checkpoint.encode(parameters, mts, vts, this.takeBuffer());
+        } catch(InterruptedException e)
+        {
+            System.err.println("[ERROR] AsyncCheckpointWriter.save: interrupted while waiting for a buffer");
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        final ByteBuffer encoded = snapshot;
+        this.writer.execute(() -> {
+            try
+            {
+                Checkpoint.write(filePath, encoded);
+            } catch(IOException e)
+            {
+                // the previous checkpoint at filePath is still intact, so keep training
+                System.err.println("[ERROR] AsyncCheckpointWriter.save: unable to write checkpoint to " + filePath);
+                e.printStackTrace();
+            } finally
+            {
+                this.freeBuffers.offer(encoded);
+            }
+        });
+    }
+
+    /** Blocks until every checkpoint queued so far is on disk (or failed). */
+    public void flush()
+    {
+        try
+        {
+            this.writer.submit(() -> {}).get();
+        } catch(Exception e)
+        {
+            System.err.println("[ERROR] AsyncCheckpointWriter.flush: unable to wait for pending checkpoints");
+            e.printStackTrace();
+        }
+    }
+
+    /** Finishes the pending writes and stops the writer thread. */
+    public void close()
+    {
+        this.writer.shutdown();
+        try
+        {
+            if(!this.writer.awaitTermination(SHUTDOWN_TIMEOUT_SECS, TimeUnit.SECONDS))
+            {
+                System.err.println("[ERROR] AsyncCheckpointWriter.close: gave up on pending checkpoints after "
+                                   + SHUTDOWN_TIMEOUT_SECS + "s");
+            }
+        } catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+package src.pas.tetris.nn;
+
+
+// SYSTEM IMPORTS
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.Parameter;
+
+
+/**
+ * Binary checkpoint of a model's parameters (and optionally an Adam optimizer's moments), laid out so
+ * that the file can be memory-mapped and read in place instead of parsed like Sequential.save's text:
+ *
+ *      offset              little-endian contents
+ *      0                   int     MAGIC ("TQCP")
+ *      4                   int     VERSION
+ *      8                   int     numParameters
+ *      12                  int     flags (HAS_MOMENTS)
+ *      16                  int     numRows, int numCols     one pair per parameter, in getParameters() order
+ *      16 + 8 * numParams  double  values                   every parameter, row-major, one after the other
+ *                          double  first moments (m)        same layout, only if HAS_MOMENTS
+ *                          double  second moments (v)       same layout, only if HAS_MOMENTS
+ *
+ * The header is a multiple of 8 bytes long, so the doubles are aligned. Matrix keeps its storage private,
+ * so a load still has to copy every value into the model with set(), but it does so straight from the
+ * mapped pages: no read buffer, no parsing and no intermediate String/Matrix per parameter.
+ */
+public class Checkpoint
+    extends Object
+{
+
+    public static final int     MAGIC           = 0x50435154; // "TQCP" in file (little-endian) order
+    public static final int     VERSION         = 1;
+    public static final int     HAS_MOMENTS     = 1;
+    public static final String  TMP_SUFFIX      = ".tmp";   // write() stages the new file here
+
+    private static final int    HEADER_BYTES    = 4 * Integer.BYTES;
+    private static final int    SHAPE_BYTES     = 2 * Integer.BYTES;
+
+    private final int[]         numRows;
+    private final int[]         numCols;
+    private final boolean       hasMoments;
+    private final DoubleBuffer  data;       // read-only view of the mapped file, starting at the values
+
+    private Checkpoint(int[] numRows,
+                       int[] numCols,
+                       boolean hasMoments,
+                       DoubleBuffer data)
+    {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.hasMoments = hasMoments;
+        this.data = data;
+    }
+
+    public final int getNumParameters() { return this.numRows.length; }
+    public final boolean hasMoments() { return this.hasMoments; }
+
+    private int getNumValues()
+    {
+        int numValues = 0;
+        for(int paramIdx = 0; paramIdx < this.getNumParameters(); ++paramIdx)
+        {
+            numValues += this.numRows[paramIdx] * this.numCols[paramIdx];
+        }
+        return numValues;
+    }
+
+    /** True if the file starts with MAGIC, i.e. was written by save() and not by Sequential.save. */
+    public static boolean isCheckpoint(final String filePath)
+    {
+        File file = new File(filePath);
+        if(!file.isFile() || file.length() < HEADER_BYTES)
+        {
+            return false;
+        }
+
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while(magic.hasRemaining() && channel.read(magic) >= 0) {}
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch(IOException e)
+        {
+            return false;
+        }
+    }
+
+    /** Size in bytes of the checkpoint save() writes for these parameters. */
+    public static long getSizeInBytes(final List<Parameter> parameters,
+                                      final boolean withMoments)
+    {
+        long numValues = 0;
+        for(Parameter parameter : parameters)
+        {
+            numValues += parameter.getValue().numel();
+        }
+        return HEADER_BYTES + (long)SHAPE_BYTES * parameters.size()
+            + (withMoments ? 3 : 1) * numValues * Double.BYTES;
+    }
+
+    /**
+     * Encodes the parameters (and the moments, if both lists are non-null; they must have one Matrix per
+     * parameter, of the same shape) in the file format. buffer is reused if it is big enough (pass null to
+     * allocate one). The returned buffer holds the whole file between position 0 and its limit.
+     */
+    public static ByteBuffer encode(final List<Parameter> parameters,
+                                    final List<Matrix> mts,
+                                    final List<Matrix> vts,
+                                    ByteBuffer buffer)
+    {
+        final boolean withMoments = mts != null && vts != null;
+        final long sizeInBytes = Checkpoint.getSizeInBytes(parameters, withMoments);
+        if(sizeInBytes > Integer.MAX_VALUE)
+        {
+            System.err.println("[ERROR] Checkpoint.encode: checkpoint of " + sizeInBytes + " bytes is too large");
+            System.exit(-1);
+        }
+        if(buffer == null || buffer.capacity() < sizeInBytes)
+        {
+            buffer = ByteBuffer.allocateDirect((int)sizeInBytes);
+        }
+        buffer.clear().limit((int)sizeInBytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(parameters.size());
+        buffer.putInt(withMoments ? HAS_MOMENTS : 0);
+        for(Parameter parameter : parameters)
+        {
+            buffer.putInt(parameter.getValue().getShape().getNumRows());
+            buffer.putInt(parameter.getValue().getShape().getNumCols());
+        }
+
+        DoubleBuffer data = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        for(Parameter parameter : parameters)
+        {
+            Checkpoint.put(data, parameter.getValue());
+        }
+        if(withMoments)
+        {
+            for(Matrix mt : mts)
+            {
+                Checkpoint.put(data, mt);
+            }
+            for(Matrix vt : vts)
+            {
+                Checkpoint.put(data, vt);
+            }
+        }
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Writes an encoded checkpoint (position to limit) to filePath without ever exposing a partial file:
+     * the bytes go to filePath + TMP_SUFFIX, which is fsync'd and then atomically renamed over filePath.
+     * If this fails or the process dies part way, filePath still holds the previous checkpoint.
+     */
+    public static void write(final String filePath,
+                             final ByteBuffer encoded) throws IOException
+    {
+        final Path path = Path.of(filePath).toAbsolutePath();
+        final Path tmpPath = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+        if(path.getParent() != null)
+        {
+            Files.createDirectories(path.getParent());
+        }
+
+        ByteBuffer bytes = encoded.duplicate();
+        try(FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while(bytes.hasRemaining())
+            {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // make the rename itself durable. Not every platform lets a directory be opened, which only
+        // means the rename might not survive a power loss there
+        if(path.getParent() != null)
+        {
+            try(FileChannel directory = FileChannel.open(path.getParent(), StandardOpenOption.READ))
+            {
+                directory.force(true);
+            } catch(IOException e) {}
+        }
+    }
+
+    /** encode() + write(), on the calling thread. */
+    public static void save(final String filePath,
+                            final List<Parameter> parameters,
+                            final List<Matrix> mts,
+                            final List<Matrix> vts) throws IOException
+    {
+        Checkpoint.write(filePath, Checkpoint.encode(parameters, mts, vts, null));
+    }
+
+    private static void put(final DoubleBuffer data,
+                            final Matrix matrix)
+    {
+        final int numRows = matrix.getShape().getNumRows();
+        final int numCols = matrix.getShape().getNumCols();
+        for(int row = 0; row < numRows; ++row)
+        {
+            for(int col = 0; col < numCols; ++col)
+            {
+                data.put(matrix.get(row, col));
+            }
+        }
+    }
+
+    /**
+     * Maps filePath (read-only) and checks its header. Nothing is copied yet: the values are read from the
+     * mapping by copyParametersInto / copyMomentsInto. write() replaces files with a rename, so the mapping
+     * keeps reading the file as it was even if a new checkpoint is saved to the same path in between.
+     */
+    public static Checkpoint open(final String filePath) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            final long sizeInBytes = channel.size();
+            if(sizeInBytes < HEADER_BYTES)
+            {
+                throw new IOException("Checkpoint.open: " + filePath + " is too short to be a checkpoint");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, sizeInBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.getInt() != MAGIC)
+            {
+                throw new IOException("Checkpoint.open: " + filePath + " is not a checkpoint");
+            }
+            final int version = buffer.getInt();
+            if(version != VERSION)
+            {
+                throw new IOException("Checkpoint.open: " + filePath + " has version " + version + ", expected " + VERSION);
+            }
+            final int numParameters = buffer.getInt();
+            final boolean hasMoments = (buffer.getInt() & HAS_MOMENTS) != 0;
+            if(numParameters < 0 || HEADER_BYTES + (long)SHAPE_BYTES * numParameters > sizeInBytes)
+            {
+                throw new IOException("Checkpoint.open: " + filePath + " has a corrupt header");
+            }
+
+            int[] numRows = new int[numParameters];
+            int[] numCols = new int[numParameters];
+            for(int paramIdx = 0; paramIdx < numParameters; ++paramIdx)
+            {
+                numRows[paramIdx] = buffer.getInt();
+                numCols[paramIdx] = buffer.getInt();
+            }
+
+            Checkpoint checkpoint = new Checkpoint(numRows, numCols, hasMoments,
+                                                   buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+            if(checkpoint.data.capacity() < (hasMoments ? 3L : 1L) * checkpoint.getNumValues())
+            {
+                throw new IOException("Checkpoint.open: " + filePath + " is truncated");
+            }
+            return checkpoint;
+        }
+    }
+
+    private void checkShapes(final List<Matrix> matrices) throws Exception
+    {
+        if(matrices.size() != this.getNumParameters())
+        {
+            throw new Exception("Checkpoint: holds " + this.getNumParameters() + " parameters, model has " + matrices.size());
+        }
+        int paramIdx = 0;
+        for(Matrix matrix : matrices)
+        {
+            if(matrix.getShape().getNumRows() != this.numRows[paramIdx] || matrix.getShape().getNumCols() != this.numCols[paramIdx])
+            {
+                throw new Exception("Checkpoint: parameter " + paramIdx + " is [" + this.numRows[paramIdx] + " x "
+                                    + this.numCols[paramIdx] + "], model has " + matrix.getShape());
+            }
+            ++paramIdx;
+        }
+    }
+
+    /** Copies section (0 = values, 1 = m, 2 = v) into the matrices, which must match the stored shapes. */
+    private void copyInto(final int section,
+                          final List<Matrix> matrices) throws Exception
+    {
+        this.checkShapes(matrices);
+
+        DoubleBuffer data = this.data.duplicate();
+        data.position(section * this.getNumValues());
+        for(Matrix matrix : matrices)
+        {
+            final int numRows = matrix.getShape().getNumRows();
+            final int numCols = matrix.getShape().getNumCols();
+            for(int row = 0; row < numRows; ++row)
+            {
+                for(int col = 0; col < numCols; ++col)
+                {
+                    matrix.set(row, col, data.get());
+                }
+            }
+        }
+    }
+
+    /** Overwrites the parameter values (in place) with the stored ones. */
+    public void copyParametersInto(final List<Parameter> parameters) throws Exception
+    {
+        List<Matrix> values = new ArrayList<Matrix>(parameters.size());
+        for(Parameter parameter : parameters)
+        {
+            values.add(parameter.getValue());
+        }
+        this.copyInto(0, values);
+    }
+
+    /** Overwrites the given Adam moments (in place) with the stored ones. Only valid if hasMoments(). */
+    public void copyMomentsInto(final List<Matrix> mts,
+                                final List<Matrix> vts) throws Exception
+    {
+        if(!this.hasMoments())
+        {
+            throw new Exception("Checkpoint.copyMomentsInto: checkpoint has no optimizer moments");
+        }
+        this.copyInto(1, mts);
+        this.copyInto(2, vts);
+    }
+
+}
@@ -0,0 +1,118 @@
+package src.pas.tetris.nn;
+
+
+// SYSTEM IMPORTS
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.Model;
+import edu.bu.tetris.nn.Parameter;
+import src.pas.tetris.linalg.MatrixOps;
+import src.pas.tetris.nn.layers.FastDense;
+
+
+/**
+ * A frozen copy of a q-function that bootstrap targets are computed from, plus a version number that
+ * goes up every time the copy is refreshed from the online network. Anything derived from the target
+ * (e.g. cached next-state values) is valid for as long as the version hasn't changed.
+ *
+ * Two ways to refresh it:
+ *      HARD    sync(): the target becomes an exact copy of the online network (every K updates)
+ *      POLYAK  softUpdate(): target = tau * online + (1 - tau) * target (after every update)
+ *
+ * Updates are written into a spare model which is then swapped in, so the model returned by getModel()
+ * is never modified while it is the current target. Readers on other threads should read getVersion()
+ * *before* getModel(): a reader that is still using a model after two more refreshes may see it being
+ * overwritten, but whatever it computed is tagged with a version that is stale by then.
+ */
+public class TargetNetwork
+    extends Object
+{
+
+    public static enum SyncMode
+    {
+        HARD,
+        POLYAK;
+    }
+
+    private final Supplier<Model>   modelFactory;   // builds an empty model with the online network's architecture
+    private volatile Model          model;
+    private Model                   spare;
+    private volatile long           version;
+
+    public TargetNetwork(final Model onlineModel,
+                         final Supplier<Model> modelFactory)
+    {
+        this.modelFactory = modelFactory;
+        this.model = TargetNetwork.copyOf(onlineModel, modelFactory);
+        this.spare = null;
+        this.version = 0;
+    }
+
+    public final Model getModel() { return this.model; }
+    public final long getVersion() { return this.version; }
+
+    private Model getSpare()
+    {
+        if(this.spare == null)
+        {
+            this.spare = this.modelFactory.get();
+        }
+        return this.spare;
+    }
+
+    /** Hard update: the target becomes an exact copy of the online network. */
+    public void sync(final Model onlineModel)
+    {
+        TargetNetwork.copyParameters(onlineModel, this.getSpare());
+        this.swap();
+    }
+
+    /** Polyak update: target = tau * online + (1 - tau) * target. */
+    public void softUpdate(final Model onlineModel,
+                           final double tau)
+    {
+        Iterator<Parameter> targetIt = this.getModel().getParameters().iterator();
+        Iterator<Parameter> dstIt = this.getSpare().getParameters().iterator();
+        for(Parameter onlineParam : onlineModel.getParameters())
+        {
+            Matrix dstValue = MatrixOps.copyInto(targetIt.next().getValue(), dstIt.next().getValue());
+            MatrixOps.axpby(tau, onlineParam.getValue(), 1.0 - tau, dstValue);
+        }
+        FastDense.onParametersChanged();
+        this.swap();
+    }
+
+    private void swap()
+    {
+        Model previous = this.model;
+        this.model = this.spare;
+        this.spare = previous;
+        // bumped after the new model is in place, see the class comment
+        this.version = this.version + 1;
+    }
+
+    public static Model copyOf(final Model src,
+                               final Supplier<Model> modelFactory)
+    {
+        Model copy = modelFactory.get();
+        TargetNetwork.copyParameters(src, copy);
+        return copy;
+    }
+
+    /** Copies every parameter value of src into the (same shaped) parameters of dst. */
+    public static void copyParameters(final Model src,
+                                      final Model dst)
+    {
+        Iterator<Parameter> dstIt = dst.getParameters().iterator();
+        for(Parameter srcParam : src.getParameters())
+        {
+            MatrixOps.copyInto(srcParam.getValue(), dstIt.next().getValue());
+        }
+        FastDense.onParametersChanged();
+    }
+
+}
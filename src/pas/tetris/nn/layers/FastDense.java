@@ -0,0 +1,295 @@
+package src.pas.tetris.nn.layers;
+
+
+// SYSTEM IMPORTS
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.Parameter;
+import edu.bu.tetris.nn.layers.Dense;
+import src.pas.tetris.linalg.Gemm;
+import src.pas.tetris.linalg.MatrixOps;
+import src.pas.tetris.linalg.Precision;
+
+
+/**
+ * Dense layer (same parameters, initialization and save format as edu.bu.tetris.nn.layers.Dense) whose
+ * products go through Gemm instead of Matrix.matmul:
+ *
+ *      forward     X * W + b
+ *      backwards   dW += X^T * dY  no transpose() copies, accumulated in place into the gradient
+ *                  db += sum(dY)   in place
+ *                  dX = dY * W^T
+ *
+ * Large minibatches are split across cores by Gemm. The flat copies of the operands live in per-thread
+ * scratch arrays that are reused from call to call (forward() also runs on rollout threads), so the
+ * only Matrix a call allocates is the one it returns.
+ *
+ * With Precision.FLOAT32 the operands are rounded to float32 and the products (and gradients) are
+ * computed in float32. The parameters themselves are upstream Parameters and stay double, so the
+ * optimizer and the saved model are the same as with FLOAT64. The float32 copy of W is built once and
+ * reused until onParametersChanged() is called (every writer of parameter values in this project does)
+ * or W is replaced by another Matrix.
+ */
+public class FastDense
+    extends Dense
+{
+
+    protected static final int  X_SCRATCH       = 0;
+    protected static final int  W_SCRATCH       = 1;
+    protected static final int  OUT_SCRATCH     = 2;
+    protected static final int  DY_SCRATCH      = 3;
+    protected static final int  DW_SCRATCH      = 4;
+    protected static final int  DX_SCRATCH      = 5;
+    protected static final int  BIAS_SCRATCH    = 6;
+    private static final int    NUM_SCRATCH     = 7;
+
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[NUM_SCRATCH][0]);
+    private static final ThreadLocal<float[][]> FLOAT_SCRATCH = ThreadLocal.withInitial(() -> new float[NUM_SCRATCH][0]);
+
+    // bumped whenever parameter values may have been written in place, which invalidates the float32 copy
+    // of W of every layer (one rebuild per layer per optimizer step instead of one per call)
+    private static final AtomicLong PARAMETER_EPOCH = new AtomicLong();
+
+    /** W rounded to float32, and what it was built from. Immutable so threads can share it. */
+    private static class FloatWeights
+        extends Object
+    {
+        private final Matrix    source;
+        private final long      epoch;
+        private final float[]   values;
+
+        public FloatWeights(Matrix source, long epoch, float[] values)
+        {
+            this.source = source;
+            this.epoch = epoch;
+            this.values = values;
+        }
+    }
+
+    private final Precision         precision;
+    private volatile FloatWeights   floatWeights;
+
+    public FastDense(int inDim,
+                     int outDim)
+    {
+        this(inDim, outDim, Precision.FLOAT64);
+    }
+
+    public FastDense(int inDim,
+                     int outDim,
+                     Precision precision)
+    {
+        super(inDim, outDim);
+        this.precision = precision;
+        this.floatWeights = null;
+    }
+
+    public FastDense(int inDim,
+                     int outDim,
+                     Random random)
+    {
+        this(inDim, outDim, random, Precision.FLOAT64);
+    }
+
+    public FastDense(int inDim,
+                     int outDim,
+                     Random random,
+                     Precision precision)
+    {
+        super(inDim, outDim, random);
+        this.precision = precision;
+        this.floatWeights = null;
+    }
+
+    public final Precision getPrecision() { return this.precision; }
+
+    public final int getInDim() { return this.getWeight().getValue().getShape().getNumRows(); }
+    public final int getOutDim() { return this.getWeight().getValue().getShape().getNumCols(); }
+
+    /** This thread's scratch array for the given slot, at least size long. Contents are garbage. */
+    protected static double[] getScratch(final int slot,
+                                         final int size)
+    {
+        double[][] scratch = SCRATCH.get();
+        if(scratch[slot].length < size)
+        {
+            scratch[slot] = new double[size];
+        }
+        return scratch[slot];
+    }
+
+    /** This thread's float32 scratch array for the given slot, at least size long. Contents are garbage. */
+    protected static float[] getFloatScratch(final int slot,
+                                             final int size)
+    {
+        float[][] scratch = FLOAT_SCRATCH.get();
+        if(scratch[slot].length < size)
+        {
+            scratch[slot] = new float[size];
+        }
+        return scratch[slot];
+    }
+
+    /** Call after writing parameter values in place (optimizer steps, target updates, loads). */
+    public static void onParametersChanged()
+    {
+        PARAMETER_EPOCH.incrementAndGet();
+    }
+
+    /** W rounded to float32 (row-major), rebuilt only if the parameters changed since the last call. */
+    protected float[] getFloatWeights()
+    {
+        final Matrix W = this.getWeight().getValue();
+        final long epoch = PARAMETER_EPOCH.get(); // read first: a write during the copy leaves it stale
+        FloatWeights cached = this.floatWeights;
+        if(cached == null || cached.source != W || cached.epoch != epoch)
+        {
+            cached = new FloatWeights(W, epoch, Gemm.toArray(W, new float[this.getInDim() * this.getOutDim()]));
+            this.floatWeights = cached;
+        }
+        return cached.values;
+    }
+
+    /** The bias row, flattened into this thread's scratch array. */
+    protected double[] getBiasArray()
+    {
+        return Gemm.toArray(this.getBias().getValue(), FastDense.getScratch(BIAS_SCRATCH, this.getOutDim()));
+    }
+
+    /** Writes X * W (no bias) row-major into out and returns it. */
+    protected double[] product(final Matrix X,
+                               final double[] out) throws Exception
+    {
+        final int batchSize = X.getShape().getNumRows();
+        final int inDim = this.getInDim();
+        final int outDim = this.getOutDim();
+        if(X.getShape().getNumCols() != inDim)
+        {
+            throw new Exception("FastDense.forward: input has " + X.getShape().getNumCols() + " columns, expected " + inDim);
+        }
+
+        final Matrix W = this.getWeight().getValue();
+        if(this.getPrecision() == Precision.FLOAT32)
+        {
+            final float[] outF = FastDense.getFloatScratch(OUT_SCRATCH, batchSize * outDim);
+            Gemm.gemm(false, false, batchSize, outDim, inDim,
+                      Gemm.toArray(X, FastDense.getFloatScratch(X_SCRATCH, batchSize * inDim)),
+                      this.getFloatWeights(),
+                      outF, false);
+            for(int idx = 0; idx < batchSize * outDim; ++idx)
+            {
+                out[idx] = outF[idx];
+            }
+            return out;
+        }
+
+        Gemm.gemm(false, false, batchSize, outDim, inDim,
+                  Gemm.toArray(X, FastDense.getScratch(X_SCRATCH, batchSize * inDim)),
+                  Gemm.toArray(W, FastDense.getScratch(W_SCRATCH, inDim * outDim)),
+                  out, false);
+        return out;
+    }
+
+    @Override
+    public Matrix forward(Matrix X) throws Exception
+    {
+        final int batchSize = X.getShape().getNumRows();
+        final int outDim = this.getOutDim();
+        final Matrix b = this.getBias().getValue();
+
+        double[] out = this.product(X, FastDense.getScratch(OUT_SCRATCH, batchSize * outDim));
+        for(int col = 0; col < outDim; ++col)
+        {
+            final double bias = b.get(0, col);
+            for(int row = 0; row < batchSize; ++row)
+            {
+                out[row * outDim + col] += bias;
+            }
+        }
+        return Gemm.fromArray(batchSize, outDim, out);
+    }
+
+    @Override
+    public Matrix backwards(Matrix X,
+                            Matrix dLoss_dModule) throws Exception
+    {
+        final int batchSize = X.getShape().getNumRows();
+        return this.backwards(X, batchSize,
+                              Gemm.toArray(dLoss_dModule, FastDense.getScratch(DY_SCRATCH, batchSize * this.getOutDim())));
+    }
+
+    /** backwards() with dY ([batchSize x outDim], row-major) already flattened. */
+    protected Matrix backwards(final Matrix X,
+                               final int batchSize,
+                               final double[] dY)
+    {
+        final Parameter W = this.getWeight();
+        final Parameter b = this.getBias();
+        final int inDim = this.getInDim();
+        final int outDim = this.getOutDim();
+
+        // like Dense, gradients accumulate until the optimizer resets them
+        if(W.getGradient() == null)
+        {
+            W.reset();
+        }
+        if(b.getGradient() == null)
+        {
+            b.reset();
+        }
+        final Matrix db = b.getGradient();
+        for(int col = 0; col < outDim; ++col)
+        {
+            double sum = db.get(0, col);
+            for(int row = 0; row < batchSize; ++row)
+            {
+                sum += dY[row * outDim + col];
+            }
+            db.set(0, col, sum);
+        }
+
+        if(this.getPrecision() == Precision.FLOAT32)
+        {
+            return this.backwardsFloat(X, batchSize, dY);
+        }
+
+        final double[] x = Gemm.toArray(X, FastDense.getScratch(X_SCRATCH, batchSize * inDim));
+        double[] dW = FastDense.getScratch(DW_SCRATCH, inDim * outDim);
+        Gemm.gemm(true, false, inDim, outDim, batchSize, x, dY, dW, false);
+        MatrixOps.axpy(1.0, dW, W.getGradient());
+
+        double[] dX = FastDense.getScratch(DX_SCRATCH, batchSize * inDim);
+        Gemm.gemm(false, true, batchSize, inDim, outDim, dY,
+                  Gemm.toArray(W.getValue(), FastDense.getScratch(W_SCRATCH, inDim * outDim)), dX, false);
+        return Gemm.fromArray(batchSize, inDim, dX);
+    }
+
+    /** The two products of backwards() in float32. */
+    private Matrix backwardsFloat(final Matrix X,
+                                  final int batchSize,
+                                  final double[] dY)
+    {
+        final int inDim = this.getInDim();
+        final int outDim = this.getOutDim();
+
+        final float[] x = Gemm.toArray(X, FastDense.getFloatScratch(X_SCRATCH, batchSize * inDim));
+        final float[] dYF = FastDense.getFloatScratch(DY_SCRATCH, batchSize * outDim);
+        for(int idx = 0; idx < batchSize * outDim; ++idx)
+        {
+            dYF[idx] = (float)dY[idx];
+        }
+
+        float[] dW = FastDense.getFloatScratch(DW_SCRATCH, inDim * outDim);
+        Gemm.gemm(true, false, inDim, outDim, batchSize, x, dYF, dW, false);
+        MatrixOps.axpy(1.0, dW, this.getWeight().getGradient());
+
+        float[] dX = FastDense.getFloatScratch(DX_SCRATCH, batchSize * inDim);
+        Gemm.gemm(false, true, batchSize, inDim, outDim, dYF, this.getFloatWeights(), dX, false);
+        return Gemm.fromArray(batchSize, inDim, dX);
+    }
+
+}
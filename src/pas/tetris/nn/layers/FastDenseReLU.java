@@ -0,0 +1,133 @@
+package src.pas.tetris.nn.layers;
+
+
+// SYSTEM IMPORTS
+import java.util.Random;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import src.pas.tetris.linalg.Gemm;
+import src.pas.tetris.linalg.MatrixOps;
+import src.pas.tetris.linalg.Precision;
+
+
+/**
+ * FastDense followed by a ReLU, fused into one layer: the bias and the activation are applied in a
+ * single pass over the product, so the pre-activation never becomes a Matrix. Has the same parameters
+ * as FastDense (ReLU has none), so a Sequential of these saves and loads exactly like the unfused
+ * Dense, ReLU, Dense, ... stack.
+ *
+ * The gradient is the one edu.bu.tetris.nn.layers.ReLU computes, i.e. dY is zeroed where the
+ * pre-activation is exactly 0, so swapping the fused layer in does not change training.
+ *
+ * Sequential.backwards runs forward() right before backwards() on the same input, so the pre-activations
+ * of the last forward pass are kept and reused when backwards() gets that same input Matrix (which must
+ * not have been modified in between). They are kept per thread, in a buffer each thread reuses from
+ * call to call, so inference-only forwards (moves, rollouts, targets) don't allocate them either.
+ */
+public class FastDenseReLU
+    extends FastDense
+{
+
+    /** A thread's last forward pass through the layer. The buffer only ever grows. */
+    private static class ForwardPass
+        extends Object
+    {
+        private Matrix      input;
+        private double[]    preActivations;
+
+        public ForwardPass()
+        {
+            this.input = null;
+            this.preActivations = new double[0];
+        }
+
+        public double[] getPreActivations(final int size)
+        {
+            if(this.preActivations.length < size)
+            {
+                this.preActivations = new double[size];
+            }
+            return this.preActivations;
+        }
+    }
+
+    private final ThreadLocal<ForwardPass> lastForwardPass;
+
+    public FastDenseReLU(int inDim,
+                         int outDim)
+    {
+        this(inDim, outDim, Precision.FLOAT64);
+    }
+
+    public FastDenseReLU(int inDim,
+                         int outDim,
+                         Precision precision)
+    {
+        super(inDim, outDim, precision);
+        this.lastForwardPass = ThreadLocal.withInitial(ForwardPass::new);
+    }
+
+    public FastDenseReLU(int inDim,
+                         int outDim,
+                         Random random)
+    {
+        this(inDim, outDim, random, Precision.FLOAT64);
+    }
+
+    public FastDenseReLU(int inDim,
+                         int outDim,
+                         Random random,
+                         Precision precision)
+    {
+        super(inDim, outDim, random, precision);
+        this.lastForwardPass = ThreadLocal.withInitial(ForwardPass::new);
+    }
+
+    @Override
+    public Matrix forward(Matrix X) throws Exception
+    {
+        final int batchSize = X.getShape().getNumRows();
+        final int outDim = this.getOutDim();
+
+        // z outlives this call (see lastForwardPass), so it can't be a shared scratch array
+        final ForwardPass forwardPass = this.lastForwardPass.get();
+        double[] z = this.product(X, forwardPass.getPreActivations(batchSize * outDim));
+        double[] out = FastDense.getScratch(OUT_SCRATCH, batchSize * outDim);
+        MatrixOps.addBiasReLU(z, this.getBiasArray(), batchSize, outDim, out);
+        forwardPass.input = X;
+        return Gemm.fromArray(batchSize, outDim, out);
+    }
+
+    @Override
+    public Matrix backwards(Matrix X,
+                            Matrix dLoss_dModule) throws Exception
+    {
+        final int batchSize = X.getShape().getNumRows();
+        final int outDim = this.getOutDim();
+
+        final ForwardPass forwardPass = this.lastForwardPass.get();
+        double[] z;
+        if(forwardPass.input == X)
+        {
+            z = forwardPass.preActivations;
+        } else
+        {
+            z = this.product(X, FastDense.getScratch(OUT_SCRATCH, batchSize * outDim));
+            MatrixOps.addBiasReLU(z, this.getBiasArray(), batchSize, outDim,
+                                  FastDense.getScratch(DX_SCRATCH, batchSize * outDim)); // activations aren't needed
+        }
+
+        double[] dY = Gemm.toArray(dLoss_dModule, FastDense.getScratch(DY_SCRATCH, batchSize * outDim));
+        for(int idx = 0; idx < batchSize * outDim; ++idx)
+        {
+            if(z[idx] == 0.0)
+            {
+                dY[idx] = 0.0;
+            }
+        }
+        return this.backwards(X, batchSize, dY);
+    }
+
+}
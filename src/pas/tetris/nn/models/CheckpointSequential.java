@@ -0,0 +1,121 @@
+package src.pas.tetris.nn.models;
+
+
+// SYSTEM IMPORTS
+import java.io.IOException;
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.models.Sequential;
+import src.pas.tetris.nn.AsyncCheckpointWriter;
+import src.pas.tetris.nn.Checkpoint;
+import src.pas.tetris.nn.layers.FastDense;
+import src.pas.tetris.nn.optimizers.FusedAdamOptimizer;
+
+
+/**
+ * Sequential whose save() writes a binary Checkpoint instead of text, including the Adam moments of the
+ * optimizer training it (see attachOptimizer), so a run resumed from the file continues with the same
+ * optimizer state. load() accepts both formats: binary checkpoints are recognized by their magic number,
+ * anything else goes to Sequential.load, so older text models still load.
+ *
+ * With an AsyncCheckpointWriter, save() only takes a snapshot and the file is written in the background.
+ *
+ * Moments found by load() are kept until an optimizer is attached (TrainerAgent only hands the agent its
+ * optimizer once training starts, well after the model is loaded) and are then copied into it.
+ */
+public class CheckpointSequential
+    extends Sequential
+{
+
+    private final AsyncCheckpointWriter writer;    // null: save() writes the file itself
+    private volatile FusedAdamOptimizer optimizer;
+    private Checkpoint pendingMoments;
+
+    public CheckpointSequential()
+    {
+        this(null);
+    }
+
+    public CheckpointSequential(AsyncCheckpointWriter writer)
+    {
+        super();
+        this.writer = writer;
+        this.optimizer = null;
+        this.pendingMoments = null;
+    }
+
+    public final AsyncCheckpointWriter getWriter() { return this.writer; }
+    public final FusedAdamOptimizer getOptimizer() { return this.optimizer; }
+
+    /**
+     * From now on save() also writes this optimizer's moments. If the last load() read moments, they are
+     * copied into the optimizer (its parameters must be this model's).
+     */
+    public synchronized void attachOptimizer(FusedAdamOptimizer optimizer) throws Exception
+    {
+        this.optimizer = optimizer;
+        if(this.pendingMoments != null)
+        {
+            Checkpoint pendingMoments = this.pendingMoments;
+            this.pendingMoments = null;
+            pendingMoments.copyMomentsInto(optimizer.getFirstMoments(), optimizer.getSecondMoments());
+        }
+    }
+
+    @Override
+    public void save(String filePath)
+    {
+        final FusedAdamOptimizer optimizer = this.getOptimizer();
+        final List<Matrix> mts = optimizer != null ? optimizer.getFirstMoments() : null;
+        final List<Matrix> vts = optimizer != null ? optimizer.getSecondMoments() : null;
+        if(this.getWriter() != null)
+        {
+            this.getWriter().save(filePath, this.getParameters(), mts, vts);
+            return;
+        }
+
+        try
+        {
+            Checkpoint.save(filePath, this.getParameters(), mts, vts);
+        } catch(IOException e)
+        {
+            System.err.println("[ERROR] CheckpointSequential.save: unable to write checkpoint to " + filePath);
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    @Override
+    public synchronized void load(String filePath) throws Exception
+    {
+        if(this.getWriter() != null)
+        {
+            this.getWriter().flush(); // in case filePath is still being written
+        }
+        if(!Checkpoint.isCheckpoint(filePath))
+        {
+            super.load(filePath);
+            FastDense.onParametersChanged();
+            return;
+        }
+
+        Checkpoint checkpoint = Checkpoint.open(filePath);
+        checkpoint.copyParametersInto(this.getParameters());
+        FastDense.onParametersChanged();
+        this.pendingMoments = null;
+        if(checkpoint.hasMoments())
+        {
+            if(this.getOptimizer() != null)
+            {
+                checkpoint.copyMomentsInto(this.getOptimizer().getFirstMoments(), this.getOptimizer().getSecondMoments());
+            } else
+            {
+                this.pendingMoments = checkpoint;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package src.pas.tetris.nn.optimizers;
+
+
+// SYSTEM IMPORTS
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.nn.Parameter;
+import edu.bu.tetris.nn.optimizers.AdamOptimizer;
+import src.pas.tetris.linalg.MatrixOps;
+
+
+/**
+ * AdamOptimizer whose step() updates the moments, the parameter values and the (zeroed) gradients in
+ * place with one fused pass per parameter instead of a chain of Matrix ops. Same update rule, so
+ * training follows the upstream optimizer exactly (up to rounding).
+ *
+ * Parameter values are modified in place, so don't hold on to one across a step expecting the old values.
+ */
+public class FusedAdamOptimizer
+    extends AdamOptimizer
+{
+
+    public FusedAdamOptimizer(List<Parameter> parameters,
+                              double learningRate,
+                              double beta1,
+                              double beta2)
+    {
+        super(parameters, learningRate, beta1, beta2);
+    }
+
+    public FusedAdamOptimizer(List<Parameter> parameters,
+                              double learningRate,
+                              double beta1,
+                              double beta2,
+                              double lClipValue,
+                              double rClipValue)
+    {
+        super(parameters, learningRate, beta1, beta2, lClipValue, rClipValue);
+    }
+
+    /** Fused optimizer with the same parameters and settings (but fresh moments) as the given one. */
+    public static FusedAdamOptimizer of(AdamOptimizer optimizer)
+    {
+        if(optimizer.getLClipValue() != null && optimizer.getRClipValue() != null)
+        {
+            return new FusedAdamOptimizer(optimizer.getParameters(), optimizer.getLearningRate(),
+                                          optimizer.getBeta1(), optimizer.getBeta2(),
+                                          optimizer.getLClipValue(), optimizer.getRClipValue());
+        }
+        return new FusedAdamOptimizer(optimizer.getParameters(), optimizer.getLearningRate(),
+                                      optimizer.getBeta1(), optimizer.getBeta2());
+    }
+
+    /** m, one Matrix per parameter (same order), updated in place by step(). */
+    public List<Matrix> getFirstMoments() { return this.getMTs(); }
+
+    /** v, one Matrix per parameter (same order), updated in place by step(). */
+    public List<Matrix> getSecondMoments() { return this.getVTs(); }
+
+    @Override
+    public void reset()
+    {
+        for(Parameter parameter : this.getParameters())
+        {
+            if(parameter.getGradient() == null)
+            {
+                parameter.reset();
+            } else
+            {
+                MatrixOps.fill(parameter.getGradient(), 0.0);
+            }
+        }
+    }
+
+    @Override
+    public void step() throws Exception
+    {
+        final List<Matrix> mts = this.getMTs();
+        final List<Matrix> vts = this.getVTs();
+
+        int paramIdx = 0;
+        for(Parameter parameter : this.getParameters())
+        {
+            if(parameter.getGradient() != null)
+            {
+                MatrixOps.adamUpdate(parameter.getValue(), parameter.getGradient(), mts.get(paramIdx), vts.get(paramIdx),
+                                     this.getBeta1(), this.getBeta2(), AdamOptimizer.EPSILON, this.getLearningRate(),
+                                     this.getLClipValue(), this.getRClipValue());
+            }
+            ++paramIdx;
+        }
+    }
+
+}
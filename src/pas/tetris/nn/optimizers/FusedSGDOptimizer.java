@@ -0,0 +1,75 @@
+package src.pas.tetris.nn.optimizers;
+
+
+// SYSTEM IMPORTS
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.nn.Parameter;
+import edu.bu.tetris.nn.optimizers.SGDOptimizer;
+import src.pas.tetris.linalg.MatrixOps;
+
+
+/**
+ * SGDOptimizer that applies value -= lr * clip(gradient) and zeroes the gradient in place, instead of
+ * allocating the scaled update, the new value and a new gradient for every parameter on every step.
+ */
+public class FusedSGDOptimizer
+    extends SGDOptimizer
+{
+
+    public FusedSGDOptimizer(List<Parameter> parameters,
+                             double learningRate)
+    {
+        super(parameters, learningRate);
+    }
+
+    public FusedSGDOptimizer(List<Parameter> parameters,
+                             double learningRate,
+                             double lClipValue,
+                             double rClipValue)
+    {
+        super(parameters, learningRate, lClipValue, rClipValue);
+    }
+
+    /** Fused optimizer with the same parameters and settings as the given one. */
+    public static FusedSGDOptimizer of(SGDOptimizer optimizer)
+    {
+        if(optimizer.getLClipValue() != null && optimizer.getRClipValue() != null)
+        {
+            return new FusedSGDOptimizer(optimizer.getParameters(), optimizer.getLearningRate(),
+                                         optimizer.getLClipValue(), optimizer.getRClipValue());
+        }
+        return new FusedSGDOptimizer(optimizer.getParameters(), optimizer.getLearningRate());
+    }
+
+    @Override
+    public void reset()
+    {
+        for(Parameter parameter : this.getParameters())
+        {
+            if(parameter.getGradient() == null)
+            {
+                parameter.reset();
+            } else
+            {
+                MatrixOps.fill(parameter.getGradient(), 0.0);
+            }
+        }
+    }
+
+    @Override
+    public void step() throws Exception
+    {
+        for(Parameter parameter : this.getParameters())
+        {
+            if(parameter.getGradient() != null)
+            {
+                MatrixOps.sgdUpdate(parameter.getValue(), parameter.getGradient(), this.getLearningRate(),
+                                    this.getLClipValue(), this.getRClipValue());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package src.pas.tetris.search;
+
+
+// SYSTEM IMPORTS
+import java.util.ArrayList;
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+
+
+/**
+ * Scores placements on a board, e.g. with a q-function. Implementations are called from several
+ * fork-join workers at once, so they must be thread-safe.
+ */
+public interface AfterstateScorer
+{
+
+    /** values[i] = score of placing placements.get(i) on board. All of them should be scored in one batch. */
+    public void score(final Board board,
+                      final List<Mino> placements,
+                      final double[] values) throws Exception;
+
+    /**
+     * values[i] = score of placing the PackedMino placements[i] on board, for i in [0, numPlacements).
+     * By default the placements are turned into Minos for score(); a scorer that can read packed placements
+     * directly should override this, since it is what BeamSearch calls for every placement it looks at.
+     */
+    public default void score(final Board board,
+                              final int[] placements,
+                              final int numPlacements,
+                              final double[] values) throws Exception
+    {
+        List<Mino> minos = new ArrayList<Mino>(numPlacements);
+        for(int placementIdx = 0; placementIdx < numPlacements; ++placementIdx)
+        {
+            minos.add(PackedMino.toMino(placements[placementIdx]));
+        }
+        this.score(board, minos, values);
+    }
+
+}
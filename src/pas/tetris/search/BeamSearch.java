@@ -0,0 +1,294 @@
+package src.pas.tetris.search;
+
+
+// SYSTEM IMPORTS
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.Game.GameView;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.game.minos.Mino.MinoType;
+import edu.bu.tetris.utils.Pair;
+
+
+/**
+ * Picks a move by looking at the minos after the current one (GameView shows the next three).
+ *
+ *      depth 0     every placement of the current mino (GameView.getFinalMinoPositions) is scored, the
+ *                  best beamWidth are kept
+ *      depth d     every placement of the d-th upcoming mino (PlacementGenerator, the same placements
+ *                  the game will offer once it spawns) on every kept board is scored, the best beamWidth
+ *                  over all of them are kept
+ *
+ * and the move is the depth 0 placement the best board of the deepest depth descends from. Each board is
+ * scored with a single batched call to the AfterstateScorer, on PlacementGenerator's PackedMino ints: a
+ * placement only becomes a Mino (and a Board) if it makes the beam. The boards of a depth are expanded in
+ * parallel on a fork-join pool of the search's own. Not the common pool: Gemm forks its tiles there, and
+ * a Gemm worker joining its tiles must never pick up an expansion (which would run the q-function on that
+ * worker's scratch arrays). Gemm runs serially inside an expansion for the same reason.
+ *
+ * Every depth after the first has to finish before the deadline (timeBudgetNanos after search() starts),
+ * otherwise it is thrown away and the answer of the previous depth is used, so the search degrades to
+ * the one-ply argmax rather than running late. search() stops waiting for a depth at the deadline, so a
+ * slow expansion can't hold the move up; the expansions still queued then see the deadline and return
+ * without scoring. Depth 0 always runs.
+ */
+public class BeamSearch
+    extends Object
+{
+
+    /** A kept board: a placement's afterstate with full lines cleared, and the depth 0 move it came from. */
+    private static class Node
+        extends Object
+    {
+        private final Board board;
+        private final int   rootIdx;
+
+        public Node(Board board,
+                    int rootIdx)
+        {
+            this.board = board;
+            this.rootIdx = rootIdx;
+        }
+
+        public final Board getBoard() { return this.board; }
+        public final int getRootIdx() { return this.rootIdx; }
+    }
+
+    /** A scored placement (a PackedMino) of the next depth. Its board is only built if it makes the beam. */
+    private static class Candidate
+        extends Object
+    {
+        private final Node   parent;
+        private final int    placement;
+        private final double value;
+
+        public Candidate(Node parent,
+                         int placement,
+                         double value)
+        {
+            this.parent = parent;
+            this.placement = placement;
+            this.value = value;
+        }
+
+        public final Node getParent() { return this.parent; }
+        public final int getPlacement() { return this.placement; }
+        public final double getValue() { return this.value; }
+
+        public Node toNode()
+        {
+            return new Node(BeamSearch.place(this.getParent().getBoard(), PackedMino.toMino(this.getPlacement())),
+                            this.getParent().getRootIdx());
+        }
+    }
+
+    // best first; List.sort is stable, so ties keep their order (and the search stays deterministic)
+    private static final Comparator<Candidate> BY_VALUE = Comparator.comparingDouble(Candidate::getValue).reversed();
+
+    // shared by every BeamSearch (its workers are daemon threads, so it never keeps the JVM alive)
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // each worker's placements (and their scores) of the node it is expanding
+    private static final ThreadLocal<int[]> PLACEMENTS = ThreadLocal.withInitial(() -> new int[PlacementGenerator.MAX_PLACEMENTS]);
+    private static final ThreadLocal<double[]> VALUES = ThreadLocal.withInitial(() -> new double[PlacementGenerator.MAX_PLACEMENTS]);
+
+    /**
+     * Expands nodes[lo, hi) with the given mino type: the best beamWidth candidates among all their
+     * placements (any candidate in the global top beamWidth is in the top beamWidth of its own node), or
+     * null if the deadline passed.
+     */
+    private class ExpandTask
+        extends RecursiveTask<List<Candidate>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Node> nodes;
+        private final int        lo;
+        private final int        hi;
+        private final MinoType   type;
+        private final long       deadline;
+
+        public ExpandTask(List<Node> nodes,
+                          int lo,
+                          int hi,
+                          MinoType type,
+                          long deadline)
+        {
+            this.nodes = nodes;
+            this.lo = lo;
+            this.hi = hi;
+            this.type = type;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected List<Candidate> compute()
+        {
+            if(this.hi - this.lo > 1)
+            {
+                final int mid = (this.lo + this.hi) >>> 1;
+                ExpandTask left = new ExpandTask(this.nodes, this.lo, mid, this.type, this.deadline);
+                ExpandTask right = new ExpandTask(this.nodes, mid, this.hi, this.type, this.deadline);
+                RecursiveTask.invokeAll(left, right);
+                if(left.join() == null || right.join() == null)
+                {
+                    return null;
+                }
+                List<Candidate> candidates = new ArrayList<Candidate>(left.join());
+                candidates.addAll(right.join());
+                return BeamSearch.this.prune(candidates);
+            }
+
+            if(System.nanoTime() - this.deadline > 0)
+            {
+                return null;
+            }
+            try
+            {
+                return BeamSearch.this.expand(this.nodes.get(this.lo), this.type);
+            } catch(Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private final AfterstateScorer scorer;
+    private final int              beamWidth;
+    private final int              maxDepth;           // upcoming minos to look at, at most 3
+    private final long             timeBudgetNanos;
+
+    public BeamSearch(AfterstateScorer scorer,
+                      int beamWidth,
+                      int maxDepth,
+                      long timeBudgetNanos)
+    {
+        this.scorer = scorer;
+        this.beamWidth = beamWidth;
+        this.maxDepth = maxDepth;
+        this.timeBudgetNanos = timeBudgetNanos;
+    }
+
+    public final AfterstateScorer getScorer() { return this.scorer; }
+    public final int getBeamWidth() { return this.beamWidth; }
+    public final int getMaxDepth() { return this.maxDepth; }
+    public final long getTimeBudgetNanos() { return this.timeBudgetNanos; }
+
+    /** The board after placing mino on board and clearing full lines. */
+    private static Board place(final Board board,
+                               final Mino mino)
+    {
+        Board afterstate = new Board(board);
+        afterstate.addMino(mino);
+        afterstate.clearFullLines();
+        return afterstate;
+    }
+
+    /** The best beamWidth candidates, best first. */
+    private List<Candidate> prune(List<Candidate> candidates)
+    {
+        candidates.sort(BY_VALUE);
+        return candidates.size() > this.getBeamWidth()
+            ? new ArrayList<Candidate>(candidates.subList(0, this.getBeamWidth()))
+            : candidates;
+    }
+
+    private List<Candidate> expand(final Node node,
+                                   final MinoType type) throws Exception
+    {
+        final int[] placements = PLACEMENTS.get();
+        final int numPlacements = PlacementGenerator.getPlacements(node.getBoard(), type, placements);
+        List<Candidate> candidates = new ArrayList<Candidate>(numPlacements);
+        if(numPlacements == 0)
+        {
+            return candidates; // topped out: this line of play dies here
+        }
+
+        final double[] values = VALUES.get();
+        this.getScorer().score(node.getBoard(), placements, numPlacements, values);
+        for(int placementIdx = 0; placementIdx < numPlacements; ++placementIdx)
+        {
+            candidates.add(new Candidate(node, placements[placementIdx], values[placementIdx]));
+        }
+        return this.prune(candidates);
+    }
+
+    /**
+     * The move to make and its own (depth 0) score. Like QAgent.getBestActionAndQValue, the move is null if
+     * the current mino has no placements.
+     */
+    public Pair<Mino, Double> search(final GameView game) throws Exception
+    {
+        final long deadline = System.nanoTime() + this.getTimeBudgetNanos();
+
+        final List<Mino> rootActions = game.getFinalMinoPositions();
+        if(rootActions.isEmpty())
+        {
+            return new Pair<Mino, Double>(null, Double.NEGATIVE_INFINITY);
+        }
+        double[] rootValues = new double[rootActions.size()];
+        this.getScorer().score(game.getBoard(), rootActions, rootValues);
+
+        List<Candidate> roots = new ArrayList<Candidate>(rootActions.size());
+        for(int rootIdx = 0; rootIdx < rootValues.length; ++rootIdx)
+        {
+            roots.add(new Candidate(new Node(game.getBoard(), rootIdx), PackedMino.pack(rootActions.get(rootIdx)), rootValues[rootIdx]));
+        }
+        roots = this.prune(roots);
+        int bestRootIdx = roots.get(0).getParent().getRootIdx();
+
+        List<Node> beam = new ArrayList<Node>(roots.size());
+        for(Candidate root : roots)
+        {
+            beam.add(root.toNode());
+        }
+
+        final List<MinoType> upcomingTypes = game.getNextThreeMinoTypes();
+        final int depth = Math.min(this.getMaxDepth(), upcomingTypes.size());
+        for(int depthIdx = 0; depthIdx < depth; ++depthIdx)
+        {
+            ForkJoinTask<List<Candidate>> task = POOL.submit(
+                new ExpandTask(beam, 0, beam.size(), upcomingTypes.get(depthIdx), deadline));
+            List<Candidate> candidates;
+            try
+            {
+                candidates = task.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch(TimeoutException e)
+            {
+                task.cancel(false);
+                candidates = null;
+            } catch(ExecutionException e)
+            {
+                throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+            }
+            if(candidates == null || candidates.isEmpty())
+            {
+                break; // out of time, or every kept board tops out: keep the previous depth's answer
+            }
+
+            bestRootIdx = candidates.get(0).getParent().getRootIdx();
+            if(depthIdx + 1 < depth)
+            {
+                beam = new ArrayList<Node>(candidates.size());
+                for(Candidate candidate : candidates)
+                {
+                    beam.add(candidate.toNode());
+                }
+            }
+        }
+
+        return new Pair<Mino, Double>(rootActions.get(bestRootIdx), rootValues[bestRootIdx]);
+    }
+
+}
@@ -0,0 +1,131 @@
+package src.pas.tetris.search;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Block;
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.game.minos.Mino.MinoType;
+import edu.bu.tetris.game.minos.Mino.Orientation;
+import edu.bu.tetris.utils.Coordinate;
+
+
+/**
+ * A mino packed into an int, so placements can be enumerated without allocating a Mino (and its Block[])
+ * per move the way Mino.moveLeft/moveRight/moveDown/rotateTo do:
+ *
+ *      bits  0- 4      pivot x + PIVOT_OFFSET
+ *      bits  5- 9      pivot y + PIVOT_OFFSET
+ *      bits 10-11      orientation ordinal
+ *      bits 12-14      type ordinal
+ *
+ * The low STATE_BITS bits (everything but the type) index the states of one mino type, which is what
+ * PlacementGenerator's visited bitsets use.
+ *
+ * The block offsets of every (type, orientation) are read from the real Mino class once, so a packed mino
+ * covers exactly the cells Mino.create would give it.
+ */
+public class PackedMino
+    extends Object
+{
+
+    // blocks are at most 2 cells from the pivot, so legal pivots are within 2 of the board, and the moves
+    // and kicks PlacementGenerator tries from them step at most 2 further out
+    public static final int PIVOT_OFFSET    = 4;
+    public static final int NUM_BLOCKS      = 4;
+
+    private static final int COORD_BITS     = 5;
+    private static final int COORD_MASK     = (1 << COORD_BITS) - 1;
+    private static final int Y_SHIFT        = COORD_BITS;
+    private static final int ORIENT_SHIFT   = 2 * COORD_BITS;
+    private static final int TYPE_SHIFT     = ORIENT_SHIFT + 2;
+
+    public static final int STATE_BITS      = TYPE_SHIFT;
+    public static final int NUM_STATES      = 1 << STATE_BITS;
+
+    private static final MinoType[] TYPES = MinoType.values();
+    private static final Orientation[] ORIENTATIONS = Orientation.values();
+
+    // block offsets from the pivot, indexed [(type * 4 + orientation) * NUM_BLOCKS + blockIdx]
+    private static final int[] BLOCK_DX = new int[TYPES.length * ORIENTATIONS.length * NUM_BLOCKS];
+    private static final int[] BLOCK_DY = new int[TYPES.length * ORIENTATIONS.length * NUM_BLOCKS];
+    private static final int[] NUM_UNIQUE_ORIENTATIONS = new int[TYPES.length];
+    static
+    {
+        final Coordinate pivot = new Coordinate(Board.NUM_COLS / 2, Board.NUM_ROWS / 2);
+        for(MinoType type : TYPES)
+        {
+            for(Orientation orientation : ORIENTATIONS)
+            {
+                final Mino mino = Mino.create(type, pivot, orientation);
+                final Block[] blocks = mino.getBlocks();
+                final int shape = type.ordinal() * ORIENTATIONS.length + orientation.ordinal();
+                for(int blockIdx = 0; blockIdx < NUM_BLOCKS; ++blockIdx)
+                {
+                    BLOCK_DX[shape * NUM_BLOCKS + blockIdx] = blocks[blockIdx].getCoordinate().getXCoordinate() - pivot.getXCoordinate();
+                    BLOCK_DY[shape * NUM_BLOCKS + blockIdx] = blocks[blockIdx].getCoordinate().getYCoordinate() - pivot.getYCoordinate();
+                }
+                NUM_UNIQUE_ORIENTATIONS[type.ordinal()] = mino.getNumUniqueOrientations();
+            }
+        }
+    }
+
+    private PackedMino() {}
+
+    public static int pack(final int type,
+                           final int orientation,
+                           final int pivotX,
+                           final int pivotY)
+    {
+        return (type << TYPE_SHIFT) | (orientation << ORIENT_SHIFT)
+            | ((pivotY + PIVOT_OFFSET) << Y_SHIFT) | (pivotX + PIVOT_OFFSET);
+    }
+
+    public static int pack(final Mino mino)
+    {
+        return PackedMino.pack(mino.getType().ordinal(), mino.getOrientation().ordinal(),
+                               mino.getPivotBlockCoordinate().getXCoordinate(),
+                               mino.getPivotBlockCoordinate().getYCoordinate());
+    }
+
+    public static int getType(final int mino) { return mino >>> TYPE_SHIFT; }
+    public static int getOrientation(final int mino) { return (mino >>> ORIENT_SHIFT) & 3; }
+    public static int getPivotX(final int mino) { return (mino & COORD_MASK) - PIVOT_OFFSET; }
+    public static int getPivotY(final int mino) { return ((mino >>> Y_SHIFT) & COORD_MASK) - PIVOT_OFFSET; }
+    public static int getState(final int mino) { return mino & (NUM_STATES - 1); }
+
+    /** Mino.getNumUniqueOrientations of the type: rotations only go to the first this many orientations. */
+    public static int getNumUniqueOrientations(final int type) { return NUM_UNIQUE_ORIENTATIONS[type]; }
+
+    /** Index of the (type, orientation) shape, for getBlockDx/getBlockDy. */
+    public static int getShape(final int mino) { return mino >>> ORIENT_SHIFT; }
+    public static int getBlockDx(final int shape, final int blockIdx) { return BLOCK_DX[shape * NUM_BLOCKS + blockIdx]; }
+    public static int getBlockDy(final int shape, final int blockIdx) { return BLOCK_DY[shape * NUM_BLOCKS + blockIdx]; }
+
+    /** The same mino moved by (dx, dy). The pivot has to stay within PIVOT_OFFSET of the board. */
+    public static int move(final int mino,
+                           final int dx,
+                           final int dy)
+    {
+        return mino + dx + (dy << Y_SHIFT);
+    }
+
+    /** The same mino turned to another orientation around its pivot, like Mino.rotateTo. */
+    public static int rotateTo(final int mino,
+                               final int orientation)
+    {
+        return (mino & ~(3 << ORIENT_SHIFT)) | (orientation << ORIENT_SHIFT);
+    }
+
+    /** The real Mino, for when a placement has to leave the search (scoring, making the move). */
+    public static Mino toMino(final int mino)
+    {
+        return Mino.create(TYPES[PackedMino.getType(mino)],
+                           new Coordinate(PackedMino.getPivotX(mino), PackedMino.getPivotY(mino)),
+                           ORIENTATIONS[PackedMino.getOrientation(mino)]);
+    }
+
+}
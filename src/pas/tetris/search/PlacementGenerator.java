@@ -0,0 +1,246 @@
+package src.pas.tetris.search;
+
+
+// SYSTEM IMPORTS
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Board;
+import edu.bu.tetris.game.minos.Mino;
+import edu.bu.tetris.game.minos.Mino.MinoType;
+import src.pas.tetris.features.BitBoard;
+
+
+/**
+ * Placements of a mino, for lookahead. Game.getFinalMinoPositions only works for the mino that is actually
+ * in play, and allocates a new Mino (and Block[]) for every move its BFS tries. This runs the same BFS on
+ * PackedMino ints over a BitBoard instead:
+ *
+ *      - from a mino (the spawn, pivot (4, 1) in orientation A, for one that hasn't spawned yet), try
+ *        moving left, right and down, and rotating to each of the type's unique orientations
+ *      - a legal move is queued, and is a placement if it can't move down any further
+ *      - a rotation that is blocked by other blocks (but in bounds) where the mino would rest anyway is
+ *        kicked one column left or right (a T also tries one column over and two rows down); a legal kick
+ *        is a placement if it rests, but isn't explored any further
+ *
+ * with visited states and placements deduplicated by bitsets over PackedMino's state bits, so it finds
+ * exactly the placements (same orientation and pivot, tucks and spins included) the game would offer.
+ * Enumerating allocates nothing: every thread reuses its own queue and bitsets, and placements are
+ * written into an int[] of at least MAX_PLACEMENTS. Only the ones that leave the search need
+ * PackedMino.toMino.
+ */
+public class PlacementGenerator
+    extends Object
+{
+
+    public static final int SPAWN_COL       = 4;    // Game.getNextMino spawns pivots at (4, 1)
+    public static final int SPAWN_ROW       = 1;
+    public static final int MAX_PLACEMENTS  = PackedMino.NUM_STATES;
+
+    private static final int NUM_WORDS      = PackedMino.NUM_STATES / Long.SIZE;
+    private static final int T              = MinoType.T.ordinal();
+
+    /** Per-thread buffers, so a search can enumerate placements on every worker at once. */
+    private static class Scratch
+        extends Object
+    {
+        private final int[]     queue       = new int[PackedMino.NUM_STATES];
+        private final long[]    queued      = new long[NUM_WORDS];
+        private final long[]    visited     = new long[NUM_WORDS];
+        private final long[]    placed      = new long[NUM_WORDS];
+        private final int[]     placements  = new int[MAX_PLACEMENTS];
+        private final BitBoard  board       = new BitBoard();
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private PlacementGenerator() {}
+
+    private static boolean get(final long[] bits, final int mino)
+    {
+        final int state = PackedMino.getState(mino);
+        return (bits[state >>> 6] & (1L << state)) != 0;
+    }
+
+    private static void set(final long[] bits, final int mino)
+    {
+        final int state = PackedMino.getState(mino);
+        bits[state >>> 6] |= 1L << state;
+    }
+
+    private static boolean isInBounds(final int mino)
+    {
+        final int shape = PackedMino.getShape(mino);
+        final int pivotX = PackedMino.getPivotX(mino);
+        final int pivotY = PackedMino.getPivotY(mino);
+        for(int blockIdx = 0; blockIdx < PackedMino.NUM_BLOCKS; ++blockIdx)
+        {
+            final int col = pivotX + PackedMino.getBlockDx(shape, blockIdx);
+            final int row = pivotY + PackedMino.getBlockDy(shape, blockIdx);
+            if(col < 0 || col >= Board.NUM_COLS || row < 0 || row >= Board.NUM_ROWS)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Board.isLegalPosition: in bounds and not overlapping any block. */
+    private static boolean isLegal(final BitBoard board,
+                                   final int mino)
+    {
+        final int shape = PackedMino.getShape(mino);
+        final int pivotX = PackedMino.getPivotX(mino);
+        final int pivotY = PackedMino.getPivotY(mino);
+        for(int blockIdx = 0; blockIdx < PackedMino.NUM_BLOCKS; ++blockIdx)
+        {
+            final int col = pivotX + PackedMino.getBlockDx(shape, blockIdx);
+            final int row = pivotY + PackedMino.getBlockDy(shape, blockIdx);
+            if(col < 0 || col >= Board.NUM_COLS || row < 0 || row >= Board.NUM_ROWS || board.isOccupied(col, row))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Board.isFinalMinoPosition: some block is on the floor or right above a block. Needs an in-bounds mino. */
+    private static boolean isFinal(final BitBoard board,
+                                   final int mino)
+    {
+        final int shape = PackedMino.getShape(mino);
+        final int pivotX = PackedMino.getPivotX(mino);
+        final int pivotY = PackedMino.getPivotY(mino);
+        for(int blockIdx = 0; blockIdx < PackedMino.NUM_BLOCKS; ++blockIdx)
+        {
+            final int col = pivotX + PackedMino.getBlockDx(shape, blockIdx);
+            final int row = pivotY + PackedMino.getBlockDy(shape, blockIdx);
+            if(row == Board.NUM_ROWS - 1 || board.isOccupied(col, row + 1))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes every placement reachable from start (a PackedMino) on board into placements, in the order the
+     * BFS finds them, and returns how many there are. Like the game, start itself is expanded even if it
+     * overlaps blocks (a spawn on a nearly topped out board), since its moves may still be legal.
+     */
+    public static int getPlacements(final BitBoard board,
+                                    final int start,
+                                    final int[] placements)
+    {
+        final Scratch scratch = SCRATCH.get();
+        final int[] queue = scratch.queue;
+        final long[] queued = scratch.queued;
+        final long[] visited = scratch.visited;
+        final long[] placed = scratch.placed;
+        Arrays.fill(queued, 0L);
+        Arrays.fill(visited, 0L);
+        Arrays.fill(placed, 0L);
+
+        final int type = PackedMino.getType(start);
+        final int numOrientations = PackedMino.getNumUniqueOrientations(type);
+        int numPlacements = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        PlacementGenerator.set(queued, start);
+
+        while(head < tail)
+        {
+            final int node = queue[head++];
+            if(PlacementGenerator.get(visited, node))
+            {
+                continue; // reached by a kick after it was queued
+            }
+            PlacementGenerator.set(visited, node);
+
+            // children 0-2 are left, right and down, the rest are rotations (the current orientation is skipped)
+            for(int childIdx = 0; childIdx < 3 + numOrientations; ++childIdx)
+            {
+                final boolean isRotation = childIdx >= 3;
+                final int child;
+                switch(childIdx)
+                {
+                    case 0:     child = PackedMino.move(node, -1, 0); break;
+                    case 1:     child = PackedMino.move(node, 1, 0); break;
+                    case 2:     child = PackedMino.move(node, 0, 1); break;
+                    default:    child = PackedMino.rotateTo(node, childIdx - 3); break;
+                }
+                if(child == node || PlacementGenerator.get(visited, child))
+                {
+                    continue;
+                }
+
+                if(PlacementGenerator.isLegal(board, child))
+                {
+                    if(!PlacementGenerator.get(queued, child))
+                    {
+                        PlacementGenerator.set(queued, child);
+                        queue[tail++] = child;
+                    }
+                    if(!PlacementGenerator.get(placed, child) && PlacementGenerator.isFinal(board, child))
+                    {
+                        PlacementGenerator.set(placed, child);
+                        placements[numPlacements++] = child;
+                    }
+                } else if(isRotation && PlacementGenerator.isInBounds(child) && PlacementGenerator.isFinal(board, child))
+                {
+                    final int numKicks = type == T ? 4 : 2;
+                    for(int kickIdx = 0; kickIdx < numKicks; ++kickIdx)
+                    {
+                        final int kick = PackedMino.move(child, (kickIdx & 1) == 0 ? -1 : 1, kickIdx < 2 ? 0 : 2);
+                        if(!PlacementGenerator.get(visited, kick) && PlacementGenerator.isLegal(board, kick))
+                        {
+                            PlacementGenerator.set(visited, kick);
+                            if(!PlacementGenerator.get(placed, kick) && PlacementGenerator.isFinal(board, kick))
+                            {
+                                PlacementGenerator.set(placed, kick);
+                                placements[numPlacements++] = kick;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return numPlacements;
+    }
+
+    /** getPlacements from where type spawns. */
+    public static int getPlacements(final BitBoard board,
+                                    final MinoType type,
+                                    final int[] placements)
+    {
+        return PlacementGenerator.getPlacements(board, PackedMino.pack(type.ordinal(), 0, SPAWN_COL, SPAWN_ROW), placements);
+    }
+
+    /** getPlacements from where type spawns on a Board (loaded into this thread's own BitBoard). */
+    public static int getPlacements(final Board board,
+                                    final MinoType type,
+                                    final int[] placements)
+    {
+        return PlacementGenerator.getPlacements(SCRATCH.get().board.load(board), type, placements);
+    }
+
+    /** Every placement of type (from its spawn) on board as real minos (empty if the board is topped out). */
+    public static List<Mino> getPlacements(final Board board,
+                                           final MinoType type)
+    {
+        final Scratch scratch = SCRATCH.get();
+        final int numPlacements = PlacementGenerator.getPlacements(scratch.board.load(board), type, scratch.placements);
+
+        List<Mino> placements = new ArrayList<Mino>(numPlacements);
+        for(int placementIdx = 0; placementIdx < numPlacements; ++placementIdx)
+        {
+            placements.add(PackedMino.toMino(scratch.placements[placementIdx]));
+        }
+        return placements;
+    }
+
+}
@@ -0,0 +1,24 @@
+package src.pas.tetris.training.data;
+
+
+// SYSTEM IMPORTS
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.game.Game.GameView;
+
+
+/**
+ * Implemented by q-agents that bootstrap from a versioned (frozen) target network. A replay buffer can
+ * then cache max_a Q(nextState, a) per sample and only recompute it once getTargetVersion() changes.
+ */
+public interface NextStateValueFunction
+{
+
+    /** max over the placements available in nextState of the target network's q-value. */
+    public double getNextStateValue(final GameView nextState);
+
+    /** Changes whenever getNextStateValue could return something different for the same state. */
+    public long getTargetVersion();
+
+}
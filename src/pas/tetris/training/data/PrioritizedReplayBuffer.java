@@ -0,0 +1,135 @@
+package src.pas.tetris.training.data;
+
+
+// SYSTEM IMPORTS
+import java.util.Random;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.agents.QAgent;
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.utils.Pair;
+import src.pas.tetris.linalg.Precision;
+
+
+/**
+ * RingReplayBuffer that also keeps a priority per sample in a SumTree, so training can draw minibatches
+ * proportionally to how wrong the q-function currently is on each sample (prioritized experience
+ * replay) instead of uniformly. Storage and eviction are exactly the RingReplayBuffer's, so this works
+ * with either ReplacementType.
+ *
+ * Appends stay lock-free: new samples are noticed through the ring's slot stamps the next time
+ * getTrainingData() is called (always on the trainer's thread) and get the largest priority seen so
+ * far, so every sample is trained on at least once before its TD error is known.
+ *
+ * Sample i is drawn with probability P(i) = p_i / sum_j p_j where p_i = (|td_i| + PRIORITY_EPSILON)^ALPHA,
+ * and is weighted by the importance-sampling weight (N * P(i))^-beta / max_j (N * P(j))^-beta to undo
+ * the bias this introduces. The max is over the whole buffer (it is the weight of the smallest priority,
+ * which the SumTree tracks), so weights are comparable across minibatches.
+ */
+public class PrioritizedReplayBuffer
+    extends RingReplayBuffer
+{
+
+    public static final double ALPHA                = 0.6;
+    public static final double INITIAL_BETA         = 0.4;
+    public static final double PRIORITY_EPSILON     = 1e-3;
+
+    private final SumTree   priorities;
+    private final int[]     seenStamps;         // slot stamp the last time we looked at the slot
+    private Matrix          trainingX;          // from the last getTrainingData() call
+    private Matrix          trainingYGt;
+
+    public PrioritizedReplayBuffer(ReplacementType type,
+                                   int capacity)
+    {
+        this(type, capacity, Precision.FLOAT64);
+    }
+
+    public PrioritizedReplayBuffer(ReplacementType type,
+                                   int capacity,
+                                   Precision precision)
+    {
+        super(type, capacity, precision);
+        this.priorities = new SumTree(capacity);
+        this.seenStamps = new int[capacity];
+        this.trainingX = null;
+        this.trainingYGt = null;
+    }
+
+    public final SumTree getPriorities() { return this.priorities; }
+    public final Matrix getTrainingX() { return this.trainingX; }
+    public final Matrix getTrainingYGt() { return this.trainingYGt; }
+
+    public boolean hasTrainingData() { return this.getTrainingX() != null && this.getTrainingX().getShape().getNumRows() > 0; }
+
+    @Override
+    public Pair<Matrix, Matrix> getTrainingData(QAgent qAgent,
+                                                double gamma)
+    {
+        this.refreshNewSamples();
+        Pair<Matrix, Matrix> trainingData = super.getTrainingData(qAgent, gamma);
+        // kept so minibatches can be drawn by sample index (Dataset only hands out shuffled slices)
+        this.trainingX = trainingData.getFirst();
+        this.trainingYGt = trainingData.getSecond();
+        return trainingData;
+    }
+
+    /** Gives every sample written since the last call the max priority seen so far. */
+    private void refreshNewSamples()
+    {
+        final double newPriority = this.getPriorities().getMaxPriority() > 0.0
+            ? this.getPriorities().getMaxPriority()
+            : 1.0;
+        for(int sampleIdx = 0; sampleIdx < this.size(); ++sampleIdx)
+        {
+            int stamp = this.getSlotStamp(sampleIdx);
+            if(stamp != this.seenStamps[sampleIdx])
+            {
+                this.getPriorities().set(sampleIdx, newPriority);
+                this.seenStamps[sampleIdx] = stamp;
+            }
+        }
+    }
+
+    /**
+     * Draws batchSize sample indices (one from each of batchSize equal slices of the total priority mass,
+     * which lowers the variance compared to batchSize independent draws) and writes the normalized
+     * importance-sampling weight of each into weights (all in (0, 1]).
+     */
+    public int[] sample(int batchSize,
+                       double beta,
+                       Random rng,
+                       double[] weights)
+    {
+        final int size = this.size();
+        final SumTree tree = this.getPriorities();
+        final double total = tree.getTotal();
+        final double segment = total / batchSize;
+
+        // the largest weight in the buffer is the one of its smallest priority
+        final double maxWeight = Math.pow(size * tree.getMinPriority() / total, -beta);
+
+        int[] sampleIdxs = new int[batchSize];
+        for(int i = 0; i < batchSize; ++i)
+        {
+            int sampleIdx = Math.min(tree.find(segment * (i + rng.nextDouble())), size - 1);
+            sampleIdxs[i] = sampleIdx;
+
+            double probability = tree.get(sampleIdx) / total;
+            weights[i] = Math.pow(size * probability, -beta) / maxWeight;
+        }
+        return sampleIdxs;
+    }
+
+    /** New priorities from the TD errors (prediction - target) of the given samples. */
+    public void updatePriorities(int[] sampleIdxs,
+                                 double[] tdErrors)
+    {
+        for(int i = 0; i < sampleIdxs.length; ++i)
+        {
+            this.getPriorities().set(sampleIdxs[i], Math.pow(Math.abs(tdErrors[i]) + PRIORITY_EPSILON, ALPHA));
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+package src.pas.tetris.training.data;
+
+
+// SYSTEM IMPORTS
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+// JAVA PROJECT IMPORTS
+import edu.bu.tetris.agents.QAgent;
+import edu.bu.tetris.game.Game.GameView;
+import edu.bu.tetris.linalg.Matrix;
+import edu.bu.tetris.training.data.ReplayBuffer;
+import edu.bu.tetris.utils.Pair;
+import src.pas.tetris.linalg.Precision;
+
+
+/**
+ * Drop-in ReplayBuffer (same ReplacementType semantics, same getTrainingData contract) that keeps every
+ * sample in flat primitive arrays and takes appends from any number of threads without locking:
+ *
+ *      features    one double[capacity * numFeatures] ring, sample i is [i * numFeatures, (i+1) * numFeatures)
+ *                  (a float[] with Precision.FLOAT32, which halves the buffer's footprint. Pixels are
+ *                  0/0.5/1 and the other features are small counts, so they are stored exactly.)
+ *      rewards     double[capacity]
+ *      nextStates  GameView[capacity] (null if the sample ended the game)
+ *
+ * A producer claims a sample number with one getAndIncrement on an atomic counter. While the buffer is
+ * filling, sample number n goes into slot n. Once it is full, OLDEST overwrites slot (n mod capacity)
+ * and RANDOM overwrites a random slot. Each slot also has a stamp that is odd while someone is writing
+ * it. A producer flips it with a CAS before writing, so two producers can never interleave their
+ * writes into the same slot (under RANDOM they simply pick another slot, under OLDEST the loser waits
+ * for the other write to finish, which only happens if producers lap the whole ring).
+ *
+ * Reading (size(), getTrainingData(), getGroundTruth()) is meant to happen once producers are done, as
+ * TrainerAgent does: it trains in onGameEnd after all of the phase's training games have finished.
+ *
+ * If the q-agent is a NextStateValueFunction (bootstraps from a versioned target network), the
+ * bootstrap value max_a Q_target(nextState, a) of each sample is cached together with the slot stamp
+ * and target version it was computed for. Building the ground truth again then only evaluates the
+ * samples that were overwritten since, or all of them once the target network has been synced.
+ * warmNextStateValueCache() fills the cache ahead of time and may run on a background thread while
+ * producers are still appending (but not at the same time as getGroundTruth()).
+ */
+public class RingReplayBuffer
+    extends ReplayBuffer
+{
+
+    private final int                       capacity;
+    private final AtomicLong                numAdded;
+    private final AtomicIntegerArray        slotStamps;     // odd while the slot is being written
+    private final Precision                 precision;
+    private final AtomicReference<Object>   features;       // double[] or float[], allocated by the first sample
+    private volatile int                    numFeatures;
+    private final double[]                  rewards;
+    private final GameView[]                nextStates;
+
+    private final double[]                  cachedNextStateValues;
+    private final int[]                     cachedSlotStamps;
+    private final long[]                    cachedTargetVersions;  // -1 means nothing cached
+    private long                            numCacheHits;
+    private long                            numCacheMisses;
+
+    public RingReplayBuffer(ReplacementType type,
+                            int capacity)
+    {
+        this(type, capacity, Precision.FLOAT64);
+    }
+
+    public RingReplayBuffer(ReplacementType type,
+                            int capacity,
+                            Precision precision)
+    {
+        // the parent's own storage is never used, so don't let it allocate any
+        super(type, 0);
+        this.capacity = capacity;
+        this.precision = precision;
+        this.numAdded = new AtomicLong(0);
+        this.slotStamps = new AtomicIntegerArray(capacity);
+        this.features = new AtomicReference<Object>(null);
+        this.numFeatures = 0;
+        this.rewards = new double[capacity];
+        this.nextStates = new GameView[capacity];
+
+        this.cachedNextStateValues = new double[capacity];
+        this.cachedSlotStamps = new int[capacity];
+        this.cachedTargetVersions = new long[capacity];
+        Arrays.fill(this.cachedTargetVersions, -1);
+        this.numCacheHits = 0;
+        this.numCacheMisses = 0;
+    }
+
+    public final int getCapacity() { return this.capacity; }
+    public final int getNumFeatures() { return this.numFeatures; }
+    public final long getNumAdded() { return this.numAdded.get(); }
+
+    public final Precision getPrecision() { return this.precision; }
+
+    public final double getFeature(int sampleIdx, int col)
+    {
+        final Object features = this.features.get();
+        final int idx = sampleIdx * this.getNumFeatures() + col;
+        return features instanceof float[] ? ((float[])features)[idx] : ((double[])features)[idx];
+    }
+    public final double getReward(int sampleIdx) { return this.rewards[sampleIdx]; }
+    public final GameView getNextState(int sampleIdx) { return this.nextStates[sampleIdx]; }
+
+    /** Goes up by 2 every time the slot is overwritten, so subclasses can tell which samples are new. */
+    protected final int getSlotStamp(int slot) { return this.slotStamps.get(slot); }
+
+    public final long getNumCacheHits() { return this.numCacheHits; }
+    public final long getNumCacheMisses() { return this.numCacheMisses; }
+
+    @Override
+    public int size()
+    {
+        return (int)Math.min(this.getNumAdded(), this.getCapacity());
+    }
+
+    @Override
+    public void addSample(Matrix prevStateAndAction,
+                          double reward,
+                          GameView nextState)
+    {
+        final int numCols = prevStateAndAction.getShape().getNumCols();
+        final Object features = this.getOrCreateFeatures(numCols);
+
+        final long sampleNum = this.numAdded.getAndIncrement();
+        int slot = this.claimSlot(sampleNum);
+
+        final int offset = slot * numCols;
+        if(features instanceof float[])
+        {
+            final float[] floatFeatures = (float[])features;
+            for(int col = 0; col < numCols; ++col)
+            {
+                floatFeatures[offset + col] = (float)prevStateAndAction.get(0, col);
+            }
+        } else
+        {
+            final double[] doubleFeatures = (double[])features;
+            for(int col = 0; col < numCols; ++col)
+            {
+                doubleFeatures[offset + col] = prevStateAndAction.get(0, col);
+            }
+        }
+        this.rewards[slot] = reward;
+        this.nextStates[slot] = nextState;
+
+        // publishes the writes above and frees the slot
+        this.slotStamps.incrementAndGet(slot);
+    }
+
+    /** Picks the slot for the given sample number and marks it as being written (odd stamp). */
+    private int claimSlot(long sampleNum)
+    {
+        final boolean random = this.getReplacementType() == ReplacementType.RANDOM;
+        int slot = sampleNum < this.getCapacity() || !random
+            ? (int)(sampleNum % this.getCapacity())
+            : ThreadLocalRandom.current().nextInt(this.getCapacity());
+
+        while(true)
+        {
+            int stamp = this.slotStamps.get(slot);
+            if((stamp & 1) == 0 && this.slotStamps.compareAndSet(slot, stamp, stamp + 1))
+            {
+                return slot;
+            }
+
+            if(random && sampleNum >= this.getCapacity())
+            {
+                slot = ThreadLocalRandom.current().nextInt(this.getCapacity());
+            } else
+            {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private Object getOrCreateFeatures(int numCols)
+    {
+        Object features = this.features.get();
+        if(features == null)
+        {
+            // several producers may race here, only one array wins
+            this.features.compareAndSet(null, this.getPrecision() == Precision.FLOAT32
+                ? new float[this.getCapacity() * numCols]
+                : new double[this.getCapacity() * numCols]);
+            features = this.features.get();
+            this.numFeatures = numCols;
+        }
+
+        final int length = features instanceof float[] ? ((float[])features).length : ((double[])features).length;
+        if(length != this.getCapacity() * numCols)
+        {
+            System.err.println("[ERROR] RingReplayBuffer.addSample: sample has " + numCols + " features but buffer holds "
+                               + (length / this.getCapacity()));
+            System.exit(-1);
+        }
+        return features;
+    }
+
+    @Override
+    public Matrix getGroundTruth(QAgent qAgent,
+                                 double gamma)
+    {
+        final int size = this.size();
+        final NextStateValueFunction targetValues = qAgent instanceof NextStateValueFunction
+            ? (NextStateValueFunction)qAgent
+            : null;
+        final long targetVersion = targetValues != null ? targetValues.getTargetVersion() : -1;
+        Matrix groundTruth = Matrix.zeros(size, 1);
+
+        try
+        {
+            for(int sampleIdx = 0; sampleIdx < size; ++sampleIdx)
+            {
+                double target = this.getReward(sampleIdx);
+                final GameView nextState = this.getNextState(sampleIdx);
+                if(nextState != null && targetValues == null)
+                {
+                    target += gamma * qAgent.getBestActionAndQValue(nextState).getSecond();
+                } else if(nextState != null)
+                {
+                    target += gamma * this.getNextStateValue(sampleIdx, nextState, targetValues, targetVersion);
+                }
+                groundTruth.set(sampleIdx, 0, target);
+            }
+        } catch(Exception e)
+        {
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        return groundTruth;
+    }
+
+    /**
+     * Computes the bootstrap value of every sample whose cached one is missing or stale, so the next
+     * getGroundTruth() finds them in the cache. Samples that are being written (or get overwritten
+     * while their value is computed) are skipped. Returns the number of values computed.
+     */
+    public int warmNextStateValueCache(final NextStateValueFunction targetValues)
+    {
+        // version first: a value is only ever tagged with a version at least as old as its model
+        final long targetVersion = targetValues.getTargetVersion();
+        final int size = this.size();
+        int numComputed = 0;
+
+        for(int sampleIdx = 0; sampleIdx < size; ++sampleIdx)
+        {
+            final int stamp = this.getSlotStamp(sampleIdx);
+            if((stamp & 1) != 0
+               || (this.cachedTargetVersions[sampleIdx] == targetVersion && this.cachedSlotStamps[sampleIdx] == stamp))
+            {
+                continue;
+            }
+
+            final GameView nextState = this.getNextState(sampleIdx);
+            if(nextState == null)
+            {
+                continue;
+            }
+            double value = targetValues.getNextStateValue(nextState);
+            if(this.getSlotStamp(sampleIdx) == stamp)
+            {
+                this.cachedNextStateValues[sampleIdx] = value;
+                this.cachedSlotStamps[sampleIdx] = stamp;
+                this.cachedTargetVersions[sampleIdx] = targetVersion;
+                ++numComputed;
+            }
+        }
+        return numComputed;
+    }
+
+    private double getNextStateValue(final int sampleIdx,
+                                     final GameView nextState,
+                                     final NextStateValueFunction targetValues,
+                                     final long targetVersion)
+    {
+        final int stamp = this.getSlotStamp(sampleIdx);
+        if(this.cachedTargetVersions[sampleIdx] == targetVersion && this.cachedSlotStamps[sampleIdx] == stamp)
+        {
+            ++this.numCacheHits;
+            return this.cachedNextStateValues[sampleIdx];
+        }
+
+        ++this.numCacheMisses;
+        double value = targetValues.getNextStateValue(nextState);
+        this.cachedNextStateValues[sampleIdx] = value;
+        this.cachedSlotStamps[sampleIdx] = stamp;
+        this.cachedTargetVersions[sampleIdx] = targetVersion;
+        return value;
+    }
+
+    @Override
+    public Pair<Matrix, Matrix> getTrainingData(QAgent qAgent,
+                                                double gamma)
+    {
+        final int size = this.size();
+        final int numCols = this.getNumFeatures();
+        final Object features = this.features.get();
+
+        // one straight copy out of the flat array, no per-row Matrix objects
+        Matrix X = Matrix.zeros(size, numCols);
+        if(features instanceof float[])
+        {
+            final float[] floatFeatures = (float[])features;
+            for(int sampleIdx = 0; sampleIdx < size; ++sampleIdx)
+            {
+                final int offset = sampleIdx * numCols;
+                for(int col = 0; col < numCols; ++col)
+                {
+                    X.set(sampleIdx, col, floatFeatures[offset + col]);
+                }
+            }
+        } else if(features != null)
+        {
+            final double[] doubleFeatures = (double[])features;
+            for(int sampleIdx = 0; sampleIdx < size; ++sampleIdx)
+            {
+                final int offset = sampleIdx * numCols;
+                for(int col = 0; col < numCols; ++col)
+                {
+                    X.set(sampleIdx, col, doubleFeatures[offset + col]);
+                }
+            }
+        }
+        return new Pair<Matrix, Matrix>(X, this.getGroundTruth(qAgent, gamma));
+    }
+
+}
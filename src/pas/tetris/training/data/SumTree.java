@@ -0,0 +1,89 @@
+package src.pas.tetris.training.data;
+
+
+// SYSTEM IMPORTS
+import java.util.Arrays;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Binary sum-tree over a fixed number of non-negative priorities, stored implicitly in one double[]
+ * (node i has children 2i and 2i+1, leaves start at index getNumLeaves()). Setting a priority and
+ * drawing an index proportionally to its priority are both O(log n). A second tree with the same layout
+ * keeps the minimum over the priorities set so far (leaves never set count as +infinity).
+ *
+ * Not thread-safe.
+ */
+public class SumTree
+    extends Object
+{
+
+    private final int       capacity;
+    private final int       numLeaves;  // capacity rounded up to a power of two
+    private final double[]  nodes;
+    private final double[]  minNodes;
+    private double          maxPriority;
+
+    public SumTree(int capacity)
+    {
+        this.capacity = capacity;
+        this.numLeaves = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.nodes = new double[2 * this.numLeaves];
+        this.minNodes = new double[2 * this.numLeaves];
+        Arrays.fill(this.minNodes, Double.POSITIVE_INFINITY);
+        this.maxPriority = 0.0;
+    }
+
+    public final int getCapacity() { return this.capacity; }
+    public final int getNumLeaves() { return this.numLeaves; }
+    public final double getMaxPriority() { return this.maxPriority; }
+
+    public double getTotal() { return this.nodes[1]; }
+    public double getMinPriority() { return this.minNodes[1]; }
+    public double get(int idx) { return this.nodes[this.getNumLeaves() + idx]; }
+
+    public void set(int idx, double priority)
+    {
+        int node = this.getNumLeaves() + idx;
+        double delta = priority - this.nodes[node];
+        while(node >= 1)
+        {
+            this.nodes[node] += delta;
+            node >>>= 1;
+        }
+
+        node = this.getNumLeaves() + idx;
+        this.minNodes[node] = priority;
+        for(node >>>= 1; node >= 1; node >>>= 1)
+        {
+            this.minNodes[node] = Math.min(this.minNodes[2 * node], this.minNodes[2 * node + 1]);
+        }
+        this.maxPriority = Math.max(this.maxPriority, priority);
+    }
+
+    /**
+     * Index i such that the priorities of the leaves before i sum to at most prefixSum and adding
+     * leaf i's priority goes past it. prefixSum should be in [0, getTotal()).
+     */
+    public int find(double prefixSum)
+    {
+        int node = 1;
+        while(node < this.getNumLeaves())
+        {
+            int left = 2 * node;
+            if(prefixSum < this.nodes[left] || this.nodes[left + 1] <= 0.0)
+            {
+                node = left;
+            } else
+            {
+                prefixSum -= this.nodes[left];
+                node = left + 1;
+            }
+        }
+        // rounding can walk us onto an empty leaf past the last sample
+        return Math.min(node - this.getNumLeaves(), this.getCapacity() - 1);
+    }
+
+}
@@ -0,0 +1,124 @@
+package src.pas.tetris.training.log;
+
+
+// SYSTEM IMPORTS
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Append-only JSON-lines log of training events, one flat object per line, e.g.
+ *
+ *      {"event":"game","timeMs":...,"phase":0,"game":3,"eval":false,"score":12,"moves":87}
+ *      {"event":"phase","timeMs":...,"phase":1,"avgUtility":1.63,...}
+ *
+ * Lines are only ever appended, and each one is written (and flushed) whole, so TrainingLogReader can
+ * follow the file while training runs and only read what is new. Values are numbers, booleans, strings
+ * or null (NaN and infinities are written as null).
+ */
+public class TrainingLog
+    extends Object
+{
+
+    /** One event: a type and its fields, in the order they were added. */
+    public static class Event
+        extends Object
+    {
+        private final Map<String, Object> fields;
+
+        public Event(String type)
+        {
+            this.fields = new LinkedHashMap<String, Object>();
+            this.fields.put("event", type);
+            this.fields.put("timeMs", System.currentTimeMillis());
+        }
+
+        public final Map<String, Object> getFields() { return this.fields; }
+
+        public Event with(String key,
+                          Object value)
+        {
+            this.getFields().put(key, value);
+            return this;
+        }
+    }
+
+    private final String         filePath;
+    private final BufferedWriter writer;
+
+    public TrainingLog(String filePath) throws IOException
+    {
+        this.filePath = filePath;
+        this.writer = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public final String getFilePath() { return this.filePath; }
+
+    private static void appendValue(final StringBuilder line,
+                                    final Object value)
+    {
+        if(value instanceof Double || value instanceof Float)
+        {
+            final double doubleValue = ((Number)value).doubleValue();
+            line.append(Double.isNaN(doubleValue) || Double.isInfinite(doubleValue) ? "null" : Double.toString(doubleValue));
+        } else if(value instanceof Number || value instanceof Boolean || value == null)
+        {
+            line.append(value);
+        } else
+        {
+            line.append('"');
+            for(char c : value.toString().toCharArray())
+            {
+                if(c == '"' || c == '\\')
+                {
+                    line.append('\\').append(c);
+                } else if(c < 0x20)
+                {
+                    line.append(String.format("\\u%04x", (int)c));
+                } else
+                {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+    }
+
+    /** Appends the event as one line. Failures are reported but don't stop training. */
+    public synchronized void write(final Event event)
+    {
+        StringBuilder line = new StringBuilder("{");
+        for(Map.Entry<String, Object> field : event.getFields().entrySet())
+        {
+            if(line.length() > 1)
+            {
+                line.append(',');
+            }
+            TrainingLog.appendValue(line, field.getKey());
+            line.append(':');
+            TrainingLog.appendValue(line, field.getValue());
+        }
+        line.append("}\n");
+
+        try
+        {
+            this.writer.write(line.toString());
+            this.writer.flush();
+        } catch(IOException e)
+        {
+            System.err.println("[ERROR] TrainingLog.write: unable to append to " + this.getFilePath());
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+package src.pas.tetris.training.log;
+
+
+// SYSTEM IMPORTS
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// JAVA PROJECT IMPORTS
+
+
+/**
+ * Follows a TrainingLog. Every poll() reads from where the previous one stopped to the current end of
+ * the file and returns the events in the complete lines it found; a line that is still being written is
+ * kept until the rest of it arrives. So a dashboard that polls periodically does O(new events) work
+ * instead of rereading the whole file, unlike learning_curve.py's regexes over the text log.
+ *
+ * Events come back as maps from field name to Double (all numbers), Boolean, String or null. Only the
+ * flat objects TrainingLog writes are understood; a line that doesn't parse (e.g. left behind by a run
+ * that was killed mid-write) is skipped with a warning and counted in getNumMalformedLines().
+ *
+ * Run it directly to print the phase events of a log as they come in:
+ *
+ *      java -cp "./lib/*:." src.pas.tetris.training.log.TrainingLogReader params/qFunction.events.jsonl
+ */
+public class TrainingLogReader
+    extends Object
+{
+
+    public static final int  READ_BUFFER_SIZE   = 1 << 16;
+    public static final long POLL_INTERVAL_MS   = 1000;
+
+    private final Path                  path;
+    private final ByteBuffer            readBuffer;
+    private final ByteArrayOutputStream partialLine;
+    private long                        position;   // bytes of the complete lines consumed so far
+    private long                        numMalformedLines;
+
+    public TrainingLogReader(String filePath)
+    {
+        this.path = Paths.get(filePath);
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.partialLine = new ByteArrayOutputStream();
+        this.position = 0;
+        this.numMalformedLines = 0;
+    }
+
+    public final Path getPath() { return this.path; }
+    public final long getPosition() { return this.position; }
+    public final long getNumMalformedLines() { return this.numMalformedLines; }
+
+    /** The events appended since the last call (none if the file doesn't exist yet). */
+    public List<Map<String, Object>> poll() throws IOException
+    {
+        List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+        if(!Files.exists(this.getPath()))
+        {
+            return events;
+        }
+
+        try(FileChannel channel = FileChannel.open(this.getPath(), StandardOpenOption.READ))
+        {
+            if(channel.size() < this.position)
+            {
+                // truncated or replaced: start over
+                this.position = 0;
+            }
+            // a line still being written is read again from its start next time
+            this.partialLine.reset();
+            channel.position(this.position);
+
+            int numRead;
+            while((numRead = channel.read(this.readBuffer.clear())) > 0)
+            {
+                final byte[] bytes = this.readBuffer.array();
+                for(int byteIdx = 0; byteIdx < numRead; ++byteIdx)
+                {
+                    if(bytes[byteIdx] == '\n')
+                    {
+                        String line = new String(this.partialLine.toByteArray(), StandardCharsets.UTF_8).strip();
+                        this.position += this.partialLine.size() + 1;
+                        this.partialLine.reset();
+                        if(!line.isEmpty())
+                        {
+                            this.addEvent(line, events);
+                        }
+                    } else
+                    {
+                        this.partialLine.write(bytes[byteIdx]);
+                    }
+                }
+            }
+        }
+        return events;
+    }
+
+    /** Parses line into events, or skips it (with a warning) if it isn't a line TrainingLog writes. */
+    private void addEvent(final String line,
+                          final List<Map<String, Object>> events)
+    {
+        try
+        {
+            events.add(TrainingLogReader.parse(line));
+        } catch(RuntimeException e) // IllegalArgumentException, or an index past the end of a cut-off line
+        {
+            ++this.numMalformedLines;
+            System.err.println("[WARNING] TrainingLogReader.poll: skipping malformed line in " + this.getPath()
+                               + ": " + e.getMessage());
+        }
+    }
+
+    /** Parses one line written by TrainingLog (a flat JSON object). Throws IllegalArgumentException if it isn't one. */
+    public static Map<String, Object> parse(final String line)
+    {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        int[] cursor = new int[]{TrainingLogReader.skip(line, 0, '{')};
+        while(line.charAt(TrainingLogReader.skipSpaces(line, cursor)) != '}')
+        {
+            String key = TrainingLogReader.parseString(line, cursor);
+            cursor[0] = TrainingLogReader.skip(line, cursor[0], ':');
+            fields.put(key, TrainingLogReader.parseValue(line, cursor));
+            if(line.charAt(TrainingLogReader.skipSpaces(line, cursor)) == ',')
+            {
+                ++cursor[0];
+            }
+        }
+        return fields;
+    }
+
+    private static int skipSpaces(final String line,
+                                  final int[] cursor)
+    {
+        while(cursor[0] < line.length() && Character.isWhitespace(line.charAt(cursor[0])))
+        {
+            ++cursor[0];
+        }
+        if(cursor[0] >= line.length())
+        {
+            throw new IllegalArgumentException("TrainingLogReader.parse: unexpected end of line: " + line);
+        }
+        return cursor[0];
+    }
+
+    private static int skip(final String line,
+                            final int from,
+                            final char expected)
+    {
+        int[] cursor = new int[]{from};
+        if(line.charAt(TrainingLogReader.skipSpaces(line, cursor)) != expected)
+        {
+            throw new IllegalArgumentException("TrainingLogReader.parse: expected '" + expected + "' at "
+                                               + cursor[0] + " in: " + line);
+        }
+        return cursor[0] + 1;
+    }
+
+    private static String parseString(final String line,
+                                      final int[] cursor)
+    {
+        cursor[0] = TrainingLogReader.skip(line, cursor[0], '"');
+        StringBuilder value = new StringBuilder();
+        char c;
+        while((c = line.charAt(cursor[0]++)) != '"')
+        {
+            if(c == '\\')
+            {
+                c = line.charAt(cursor[0]++);
+                if(c == 'u')
+                {
+                    c = (char)Integer.parseInt(line.substring(cursor[0], cursor[0] + 4), 16);
+                    cursor[0] += 4;
+                }
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    private static Object parseValue(final String line,
+                                     final int[] cursor)
+    {
+        final char first = line.charAt(TrainingLogReader.skipSpaces(line, cursor));
+        if(first == '"')
+        {
+            return TrainingLogReader.parseString(line, cursor);
+        }
+
+        final int start = cursor[0];
+        while(cursor[0] < line.length() && ",} \t".indexOf(line.charAt(cursor[0])) < 0)
+        {
+            ++cursor[0];
+        }
+        final String token = line.substring(start, cursor[0]);
+        switch(token)
+        {
+            case "null":
+                return null;
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            default:
+                return Double.parseDouble(token);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 1)
+        {
+            System.err.println("[ERROR] TrainingLogReader.main: usage: TrainingLogReader <events.jsonl>");
+            System.exit(-1);
+        }
+
+        TrainingLogReader reader = new TrainingLogReader(args[0]);
+        while(true)
+        {
+            for(Map<String, Object> event : reader.poll())
+            {
+                if("phase".equals(event.get("event")))
+                {
+                    System.out.println(event);
+                }
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+}